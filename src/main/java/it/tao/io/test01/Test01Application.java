@@ -1,6 +1,13 @@
 package it.tao.io.test01;
 
 import it.tao.io.test01.config.AppProperties;
+import it.tao.io.test01.config.ConversationProperties;
+import it.tao.io.test01.config.DeadlineProperties;
+import it.tao.io.test01.config.IdempotencyProperties;
+import it.tao.io.test01.config.IngressProperties;
+import it.tao.io.test01.config.ModelRoutingProperties;
+import it.tao.io.test01.config.PrefetchProperties;
+import it.tao.io.test01.config.RateLimitProperties;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
@@ -8,7 +15,9 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableScheduling
-@EnableConfigurationProperties(AppProperties.class)
+@EnableConfigurationProperties({AppProperties.class, RateLimitProperties.class, DeadlineProperties.class,
+		ModelRoutingProperties.class, IngressProperties.class, IdempotencyProperties.class,
+		PrefetchProperties.class, ConversationProperties.class})
 public class Test01Application {
 
 	public static void main(String[] args) {
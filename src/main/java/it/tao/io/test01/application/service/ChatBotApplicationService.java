@@ -1,8 +1,20 @@
 package it.tao.io.test01.application.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.tao.io.test01.domain.model.ConversationKey;
+import it.tao.io.test01.domain.model.ConversationMessage;
 import it.tao.io.test01.domain.service.ConversationDomainService;
+import it.tao.io.test01.domain.service.DuplicateMessageException;
 import it.tao.io.test01.infrastructure.client.OpenRouterClient;
+import it.tao.io.test01.infrastructure.client.dto.ModelSelection;
 import it.tao.io.test01.infrastructure.client.dto.OpenRouterMessage;
+import it.tao.io.test01.infrastructure.deadline.DeadlineExceededException;
+import it.tao.io.test01.infrastructure.deadline.RequestDeadline;
+import it.tao.io.test01.infrastructure.profiling.PipelineEvents;
+import it.tao.io.test01.infrastructure.profiling.PipelineStageEvent;
+import it.tao.io.test01.infrastructure.settings.PerformanceSettings;
+import it.tao.io.test01.infrastructure.settings.RuntimeSettings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -17,47 +29,184 @@ import java.util.List;
 public class ChatBotApplicationService {
 
     private static final Logger logger = LoggerFactory.getLogger(ChatBotApplicationService.class);
-    private static final int MAX_CONTEXT_TOKENS = 120000;
 
     private final ConversationDomainService conversationService;
     private final OpenRouterClient openRouterClient;
+    private final ModelRouter modelRouter;
+    private final RuntimeSettings runtimeSettings;
+    private final MeterRegistry meterRegistry;
 
     public ChatBotApplicationService(ConversationDomainService conversationService,
-                                   OpenRouterClient openRouterClient) {
+                                   OpenRouterClient openRouterClient,
+                                   ModelRouter modelRouter,
+                                   RuntimeSettings runtimeSettings,
+                                   MeterRegistry meterRegistry) {
         this.conversationService = conversationService;
         this.openRouterClient = openRouterClient;
+        this.modelRouter = modelRouter;
+        this.runtimeSettings = runtimeSettings;
+        this.meterRegistry = meterRegistry;
     }
 
     /**
      * Processa un messaggio utente e genera una risposta AI
      */
     public Mono<String> processUserMessage(String channelId, String userMessage) {
-        logger.debug("Processamento messaggio per canale: {}", channelId);
+        return processUserMessage(channelId, userMessage, null);
+    }
+
+    /**
+     * Processa un messaggio utente legato al messaggio Discord di origine.
+     * Se il messaggio è già stato salvato la pipeline termina con DuplicateMessageException, prima di chiamare il modello.
+     */
+    public Mono<String> processUserMessage(String channelId, String userMessage, String sourceMessageId) {
+        return processUserMessage(ConversationKey.channel(channelId), userMessage, sourceMessageId);
+    }
+
+    /**
+     * Processa un messaggio utente all'interno di una conversazione del canale (intero canale, utente o catena di risposte):
+     * il prompt contiene solo la cronologia di quella conversazione
+     */
+    public Mono<String> processUserMessage(ConversationKey conversation, String userMessage, String sourceMessageId) {
+        String channelId = conversation.channelId();
+        logger.debug("Processamento messaggio per conversazione: {}", conversation.indexKey());
+
+        Mono<ConversationMessage> saveUserMessage = sourceMessageId != null || conversation.isScoped()
+            ? conversationService.addUserMessage(conversation, userMessage, sourceMessageId)
+            : conversationService.addMessage(channelId, "user", userMessage);
+
+        // Ogni stadio consuma il budget residuo della scadenza presente nel Context (se impostata)
+        // ed emette un evento JFR quando una registrazione è attiva
+        Mono<String> pipeline = PipelineEvents.stage("store.save", channelId,
+                RequestDeadline.within("store.save", saveUserMessage))
+            .then(PipelineEvents.stage("store.history", channelId,
+                RequestDeadline.within("store.history", conversationService.getConversationHistory(conversation).collectList()),
+                List::size))
+            .flatMap(history -> Mono.deferContextual(context -> {
+                PipelineStageEvent promptEvent = PipelineEvents.begin("prompt", channelId);
+                // Budget del canale letti una sola volta: una modifica a runtime vale dalla richiesta successiva
+                PerformanceSettings settings = runtimeSettings.from(context);
+                int maxContextTokens = settings.maxContextTokens();
+
+                // Nelle cronologie lunghe usa la coda recente più i messaggi precedenti pertinenti alla domanda
+                List<ConversationMessage> messages =
+                    conversationService.selectRelevantHistory(conversation, history, userMessage, maxContextTokens);
 
-        return conversationService.addMessage(channelId, "user", userMessage)
-            .then(conversationService.getConversationHistory(channelId).collectList())
-            .map(messages -> {
                 // Converte i messaggi in formato OpenRouter
                 List<OpenRouterMessage> openRouterMessages =
                     conversationService.convertToOpenRouterFormat(messages);
 
-                // Gestisce il limite di token
-                return conversationService.manageTokenLimit(openRouterMessages, MAX_CONTEXT_TOKENS);
-            })
-            .flatMap(managedMessages -> {
+                // Sceglie modello e budget di output in base al messaggio, alla cronologia e alla scadenza residua
+                int promptTokens = Math.min(estimatePrompt(openRouterMessages), maxContextTokens);
+                ModelSelection selection = capOutput(modelRouter.route(channelId, userMessage, promptTokens,
+                    RequestDeadline.from(context).orElse(null)), settings.maxOutputTokens());
+
+                // Gestisce il limite di token con la stima calibrata per il modello scelto
+                List<OpenRouterMessage> managedMessages =
+                    conversationService.manageTokenLimit(openRouterMessages, maxContextTokens, selection.model());
+
+                int estimatedTokens = estimatePrompt(managedMessages);
+                PipelineEvents.commit(promptEvent, managedMessages.size(), estimatedTokens, "success");
+
                 logger.debug("Invio {} messaggi a OpenRouter", managedMessages.size());
-                return openRouterClient.getChatCompletion(managedMessages);
-            })
-            .flatMap(aiResponse -> {
+                InFlightRequestRegistry.recordPromptEstimate(context, estimatedTokens);
+                return PipelineEvents.stage("openrouter", channelId, managedMessages.size(), estimatedTokens,
+                        openRouterClient.getChatCompletionWithUsage(managedMessages, selection))
+                    // Usa il consumo effettivo per calibrare lo stimatore e aggiornare i totali del canale
+                    .flatMap(completion -> conversationService
+                        .recordUsage(channelId, completion.model(), managedMessages, completion.usage())
+                        .thenReturn(completion));
+            }))
+            .flatMap(completion -> {
                 // Salva la risposta AI nella cronologia
-                return conversationService.addMessage(channelId, "assistant", aiResponse)
-                    .map(savedMessage -> aiResponse);
+                return PipelineEvents.stage("store.save", channelId, RequestDeadline.within("store.save",
+                        conversationService.addAssistantMessage(conversation, completion.content(), completion.usage())))
+                    .map(savedMessage -> completion.content());
             })
             .doOnSuccess(response ->
                 logger.info("Risposta AI generata per canale: {} (lunghezza: {})",
                            channelId, response.length()))
-            .doOnError(error ->
+            .doOnError(error -> !(error instanceof DuplicateMessageException), error ->
                 logger.error("Errore nel processamento messaggio per canale: {}", channelId, error));
+
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return PipelineEvents.stage("request", channelId, pipeline)
+                .doOnSuccess(response -> recordOutcome(sample, "success", "none"))
+                .doOnError(error -> {
+                    if (error instanceof DuplicateMessageException) {
+                        recordOutcome(sample, "duplicate", "store.save");
+                    } else if (error instanceof DeadlineExceededException deadlineExceeded) {
+                        recordOutcome(sample, "deadline_exceeded", deadlineExceeded.getStage());
+                    } else {
+                        recordOutcome(sample, "error", "none");
+                    }
+                })
+                .doOnCancel(() -> recordOutcome(sample, "cancelled", "none"));
+        });
+    }
+
+    /**
+     * Rielabora un messaggio modificato: le versioni salvate dalle richieste annullate vengono rimosse prima
+     * di salvare la nuova, così la cronologia contiene solo il testo in vigore
+     */
+    public Mono<String> processEditedMessage(ConversationKey conversation, String userMessage,
+                                             String messageId, String sourceMessageId) {
+        return RequestDeadline.within("store.save",
+                conversationService.removeMessageVersions(conversation.channelId(), messageId))
+            .then(Mono.defer(() -> processUserMessage(conversation, userMessage, sourceMessageId)));
+    }
+
+    /**
+     * Rimuove dalla cronologia le versioni salvate di un messaggio la cui richiesta è stata annullata
+     */
+    public Mono<Void> discardMessageVersions(String channelId, String messageId) {
+        return conversationService.removeMessageVersions(channelId, messageId).then();
+    }
+
+    /**
+     * Prepara il contesto di un canale in cui un utente sta scrivendo: cronologia e connessione verso OpenRouter
+     */
+    public void prefetchContext(ConversationKey conversation) {
+        if (conversationService.prefetchHistory(conversation)) {
+            openRouterClient.warmUpConnection();
+        }
+    }
+
+    /**
+     * Durata ed esito delle richieste: le scadenze superate sono distinte dagli errori dei servizi esterni
+     */
+    private void recordOutcome(Timer.Sample sample, String outcome, String stage) {
+        sample.stop(Timer.builder("chatbot.request.duration")
+            .description("Durata delle richieste AI end-to-end per esito")
+            .tag("outcome", outcome)
+            .tag("stage", stage)
+            .register(meterRegistry));
+    }
+
+    private int estimatePrompt(List<OpenRouterMessage> messages) {
+        int total = 0;
+        for (OpenRouterMessage message : messages) {
+            total += conversationService.estimateTokens(message.getContent());
+        }
+        return total;
+    }
+
+    /**
+     * Applica il tetto di output impostato a runtime al budget scelto dall'instradamento (0 = nessun tetto)
+     */
+    private static ModelSelection capOutput(ModelSelection selection, int maxOutputTokens) {
+        if (maxOutputTokens <= 0 || selection.maxTokens() <= maxOutputTokens) {
+            return selection;
+        }
+        return new ModelSelection(selection.model(), maxOutputTokens, selection.temperature(), selection.route());
+    }
+
+    /**
+     * Conversazione a cui appartiene un messaggio Discord già elaborato (per seguire le catene di risposte)
+     */
+    public Mono<ConversationKey> findConversation(String channelId, String sourceMessageId) {
+        return conversationService.findConversationBySourceMessage(channelId, sourceMessageId);
     }
 
     /**
@@ -72,12 +221,14 @@ public class ChatBotApplicationService {
      * Ottiene statistiche della conversazione per un canale
      */
     public Mono<ConversationStats> getChannelStats(String channelId) {
-        return conversationService.countChannelMessages(channelId)
-            .map(messageCount -> new ConversationStats(channelId, messageCount));
+        return Mono.zip(conversationService.countChannelMessages(channelId),
+                        conversationService.getChannelTokenUsage(channelId))
+            .map(tuple -> new ConversationStats(channelId, tuple.getT1(),
+                tuple.getT2().getPromptTokens(), tuple.getT2().getCompletionTokens()));
     }
 
     /**
      * Record per le statistiche della conversazione
      */
-    public record ConversationStats(String channelId, Long messageCount) {}
+    public record ConversationStats(String channelId, Long messageCount, long promptTokens, long completionTokens) {}
 }
@@ -0,0 +1,161 @@
+package it.tao.io.test01.application.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro delle richieste AI in corso, indicizzate per ID del messaggio (o dell'interazione) che le ha generate.
+ * Annullare una richiesta interrompe la sottoscrizione: la cancellazione risale fino al WebClient,
+ * che abbandona la connessione Netty verso OpenRouter e i retry in attesa.
+ * Allo spegnimento attende il completamento delle richieste per un tempo limitato, poi annulla le rimanenti.
+ */
+@Component
+public class InFlightRequestRegistry implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(InFlightRequestRegistry.class);
+
+    /** Chiave del Context di Reactor con la richiesta in corso */
+    public static final String CONTEXT_KEY = InFlightRequest.class.getName();
+
+    private final Map<String, InFlightRequest> requests = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+    private final Counter tokensSaved;
+    private final Duration drainTimeout;
+    private volatile boolean running;
+
+    public InFlightRequestRegistry(MeterRegistry meterRegistry,
+                                   @Value("${chatbot.inflight.drain-timeout:10s}") Duration drainTimeout) {
+        this.meterRegistry = meterRegistry;
+        this.drainTimeout = drainTimeout;
+        this.tokensSaved = Counter.builder("chatbot.inflight.tokens.saved")
+                .description("Token di prompt stimati delle richieste annullate prima del completamento")
+                .register(meterRegistry);
+        Gauge.builder("chatbot.inflight.active", requests, Map::size)
+                .description("Richieste AI in corso")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Apre una richiesta per il messaggio indicato; una richiesta precedente con lo stesso ID viene sostituita e annullata
+     */
+    public InFlightRequest start(String sourceId, String channelId) {
+        InFlightRequest request = new InFlightRequest(sourceId, channelId);
+        InFlightRequest previous = requests.put(sourceId, request);
+        if (previous != null) {
+            cancel(previous, "superseded");
+        }
+        return request;
+    }
+
+    /**
+     * Associa la sottoscrizione alla richiesta; se nel frattempo è stata annullata viene interrotta subito
+     */
+    public void track(InFlightRequest request, Disposable subscription) {
+        request.subscription.update(subscription);
+    }
+
+    /**
+     * Rimuove la richiesta terminata (con successo, errore o annullamento)
+     */
+    public void finish(InFlightRequest request) {
+        requests.remove(request.sourceId(), request);
+    }
+
+    /**
+     * Annulla la richiesta generata dal messaggio indicato, se ancora in corso
+     */
+    public boolean cancel(String sourceId, String reason) {
+        InFlightRequest request = requests.remove(sourceId);
+        if (request == null) {
+            return false;
+        }
+        cancel(request, reason);
+        return true;
+    }
+
+    public boolean isInFlight(String sourceId) {
+        return requests.containsKey(sourceId);
+    }
+
+    /**
+     * Registra nel Context la stima dei token di prompt della richiesta corrente, usata per il conteggio dei token risparmiati
+     */
+    public static void recordPromptEstimate(ContextView context, int promptTokens) {
+        context.<InFlightRequest>getOrEmpty(CONTEXT_KEY).ifPresent(request -> request.estimatedPromptTokens = promptTokens);
+    }
+
+    private void cancel(InFlightRequest request, String reason) {
+        request.subscription.dispose();
+        Counter.builder("chatbot.inflight.cancelled")
+                .description("Richieste AI annullate prima del completamento")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+        tokensSaved.increment(request.estimatedPromptTokens);
+        logger.info("Richiesta annullata ({}) - Canale: {}, origine: {}", reason, request.channelId(), request.sourceId());
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        long deadline = System.nanoTime() + drainTimeout.toNanos();
+        if (!requests.isEmpty()) {
+            logger.info("Attesa del completamento di {} richieste in corso (max {})", requests.size(), drainTimeout);
+        }
+        try {
+            while (!requests.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        requests.keySet().forEach(sourceId -> cancel(sourceId, "shutdown"));
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Richiesta in corso: la sottoscrizione è sostituibile perché viene creata dopo la registrazione
+     */
+    public static final class InFlightRequest {
+
+        private final String sourceId;
+        private final String channelId;
+        private final Disposable.Swap subscription = Disposables.swap();
+        private volatile int estimatedPromptTokens;
+
+        private InFlightRequest(String sourceId, String channelId) {
+            this.sourceId = sourceId;
+            this.channelId = channelId;
+        }
+
+        public String sourceId() {
+            return sourceId;
+        }
+
+        public String channelId() {
+            return channelId;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package it.tao.io.test01.application.service;
+
+import it.tao.io.test01.config.ModelRoutingProperties;
+import it.tao.io.test01.config.ModelRoutingProperties.Complexity;
+import it.tao.io.test01.infrastructure.client.ModelLatencyScoreboard;
+import it.tao.io.test01.infrastructure.client.OpenRouterClient;
+import it.tao.io.test01.infrastructure.client.dto.ModelSelection;
+import it.tao.io.test01.infrastructure.deadline.RequestDeadline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Sceglie modello e budget di output per ogni richiesta: regole configurabili su complessità del messaggio,
+ * dimensione del prompt e canale, filtrate dallo stato dei modelli (p95 ed errori osservati sul traffico reale).
+ * max_tokens viene ridotto quando la velocità osservata del modello non lo renderebbe generabile entro la scadenza.
+ */
+@Service
+public class ModelRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModelRouter.class);
+
+    private static final Pattern COMPLEX_REQUEST = Pattern.compile(
+            "\\b(spiega|analizza|confronta|scrivi|implementa|correggi|debug|review|refactor|explain|analy[sz]e|compare|write|implement|fix)\\w*",
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+
+    private static final int LOW_COMPLEXITY_CHARS = 80;
+    private static final int HIGH_COMPLEXITY_CHARS = 600;
+
+    private final ModelRoutingProperties properties;
+    private final ModelLatencyScoreboard scoreboard;
+    private final OpenRouterClient openRouterClient;
+
+    public ModelRouter(ModelRoutingProperties properties,
+                       ModelLatencyScoreboard scoreboard,
+                       OpenRouterClient openRouterClient) {
+        this.properties = properties;
+        this.scoreboard = scoreboard;
+        this.openRouterClient = openRouterClient;
+    }
+
+    /**
+     * Selezione per la richiesta corrente; deadline può essere null
+     */
+    public ModelSelection route(String channelId, String userMessage, int promptTokens, RequestDeadline deadline) {
+        String defaultModel = openRouterClient.getModelName();
+        if (!properties.isEnabled()) {
+            return new ModelSelection(defaultModel, properties.getDefaultMaxTokens(), properties.getDefaultTemperature(), "default");
+        }
+
+        Complexity complexity = estimateComplexity(userMessage);
+        for (ModelRoutingProperties.Route route : properties.getRoutes()) {
+            if (matches(route, channelId, complexity, promptTokens)) {
+                String model = pickModel(route.getModels(), defaultModel);
+                int maxTokens = fitToDeadline(model, route.getMaxTokens(), deadline);
+                logger.debug("Instradamento: regola {}, complessità {}, prompt ~{} token -> {} (max_tokens {})",
+                            route.getName(), complexity, promptTokens, model, maxTokens);
+                return new ModelSelection(model, maxTokens, route.getTemperature(), route.getName());
+            }
+        }
+
+        int maxTokens = fitToDeadline(defaultModel, properties.getDefaultMaxTokens(), deadline);
+        return new ModelSelection(defaultModel, maxTokens, properties.getDefaultTemperature(), "default");
+    }
+
+    /**
+     * Stima euristica: messaggi brevi senza codice sono conversazione, codice o richieste di analisi sono complesse
+     */
+    Complexity estimateComplexity(String message) {
+        String text = message != null ? message.strip() : "";
+        if (text.contains("```") || text.length() > HIGH_COMPLEXITY_CHARS) {
+            return Complexity.HIGH;
+        }
+        boolean analytical = COMPLEX_REQUEST.matcher(text).find();
+        if (text.length() <= LOW_COMPLEXITY_CHARS && !analytical && text.indexOf('\n') < 0) {
+            return Complexity.LOW;
+        }
+        return analytical ? Complexity.HIGH : Complexity.MEDIUM;
+    }
+
+    private boolean matches(ModelRoutingProperties.Route route, String channelId, Complexity complexity, int promptTokens) {
+        if (!route.getChannels().isEmpty() && !route.getChannels().contains(channelId)) {
+            return false;
+        }
+        return complexity.compareTo(route.getMaxComplexity()) <= 0 && promptTokens <= route.getMaxPromptTokens();
+    }
+
+    /**
+     * Primo candidato in salute; se tutti sono degradati, quello con il p95 più basso
+     */
+    private String pickModel(List<String> candidates, String defaultModel) {
+        if (candidates.isEmpty()) {
+            return defaultModel;
+        }
+        String fastest = null;
+        long fastestP95 = Long.MAX_VALUE;
+        for (String candidate : candidates) {
+            ModelLatencyScoreboard.Snapshot stats = scoreboard.snapshot(candidate);
+            if (stats.samples() < properties.getMinSamples()) {
+                return candidate;
+            }
+            if (stats.p95().compareTo(properties.getMaxP95Latency()) <= 0 && stats.errorRate() <= properties.getMaxErrorRate()) {
+                return candidate;
+            }
+            if (stats.p95().toNanos() < fastestP95) {
+                fastestP95 = stats.p95().toNanos();
+                fastest = candidate;
+            }
+        }
+        logger.warn("Tutti i modelli candidati sono degradati, uso il più veloce: {}", fastest);
+        return fastest;
+    }
+
+    private int fitToDeadline(String model, int maxTokens, RequestDeadline deadline) {
+        if (deadline == null) {
+            return maxTokens;
+        }
+        ModelLatencyScoreboard.Snapshot stats = scoreboard.snapshot(model);
+        if (stats.samples() < properties.getMinSamples() || stats.millisPerToken() <= 0) {
+            return maxTokens;
+        }
+        // Lascia un margine del 20% al resto della pipeline (persistenza, invio su Discord)
+        long affordable = (long) (deadline.remaining().toMillis() * 0.8 / stats.millisPerToken());
+        return (int) Math.max(Math.min(properties.getMinMaxTokens(), maxTokens), Math.min(maxTokens, affordable));
+    }
+}
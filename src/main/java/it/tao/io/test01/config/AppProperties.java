@@ -3,8 +3,17 @@ package it.tao.io.test01.config;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.validation.annotation.Validated;
 
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import java.time.Duration;
 
+/**
+ * Parametri applicativi. I valori di prestazione (budget di contesto e di output, retry, indicatore di scrittura)
+ * sono i predefiniti di RuntimeSettings, che li combina con le modifiche salvate su MongoDB e via actuator.
+ */
 @ConfigurationProperties(prefix = "app")
 @Validated
 public class AppProperties {
@@ -13,13 +22,98 @@ public class AppProperties {
     @Min(1000)
     private int maxContextTokens = 120000;
 
+    /** Tetto al max_tokens scelto dall'instradamento; 0 = nessun tetto */
+    @Min(0)
+    private int maxOutputTokens = 0;
+
+    /** Intervallo di rinnovo dell'indicatore "sta scrivendo..." (Discord lo mostra per 10 secondi) */
+    @NotNull
+    private Duration typingInterval = Duration.ofSeconds(8);
+
+    /** Retry delle chiamate OpenRouter */
+    @Valid
+    private Retry retry = new Retry();
+
     /** Limite caratteri messaggio Discord */
     @Min(100)
     private int discordMessageLimit = 2000;
 
+    /**
+     * Ampiezza dei blocchi di cronologia scartati in troncatura, come frazione del budget di contesto.
+     * Tagli allineati a blocchi grandi mantengono identico il prefisso del prompt per molti turni
+     * (favorendo la prompt cache del provider); 0 rimuove solo i messaggi strettamente necessari.
+     */
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double contextTruncationChunk = 0.25;
+
+    /** Recupero lessicale dei messaggi pertinenti nelle cronologie lunghe */
+    @Valid
+    private Retrieval retrieval = new Retrieval();
+
+    /**
+     * Oltre activationTokens di cronologia (e comunque oltre il budget di contesto) il prompt è composto dagli ultimi
+     * tailMessages messaggi più i topK messaggi precedenti più pertinenti (BM25), entro maxContextTokens.
+     * Disattivato per default: la parte recuperata cambia a ogni turno e non beneficia della prompt cache.
+     */
+    public static class Retrieval {
+
+        private boolean enabled = false;
+
+        @Min(1000)
+        private int activationTokens = 24000;
+
+        @Min(1000)
+        private int maxContextTokens = 16000;
+
+        @Min(1)
+        private int tailMessages = 20;
+
+        @Min(0)
+        private int topK = 8;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public int getActivationTokens() { return activationTokens; }
+        public void setActivationTokens(int activationTokens) { this.activationTokens = activationTokens; }
+        public int getMaxContextTokens() { return maxContextTokens; }
+        public void setMaxContextTokens(int maxContextTokens) { this.maxContextTokens = maxContextTokens; }
+        public int getTailMessages() { return tailMessages; }
+        public void setTailMessages(int tailMessages) { this.tailMessages = tailMessages; }
+        public int getTopK() { return topK; }
+        public void setTopK(int topK) { this.topK = topK; }
+    }
+
+    /**
+     * Backoff esponenziale con jitter: maxAttempts nuovi tentativi a partire da baseDelay
+     */
+    public static class Retry {
+
+        @Min(0)
+        private int maxAttempts = 3;
+
+        @NotNull
+        private Duration baseDelay = Duration.ofSeconds(1);
+
+        public int getMaxAttempts() { return maxAttempts; }
+        public void setMaxAttempts(int maxAttempts) { this.maxAttempts = maxAttempts; }
+        public Duration getBaseDelay() { return baseDelay; }
+        public void setBaseDelay(Duration baseDelay) { this.baseDelay = baseDelay; }
+    }
+
     // getters/setters
     public int getMaxContextTokens() { return maxContextTokens; }
     public void setMaxContextTokens(int maxContextTokens) { this.maxContextTokens = maxContextTokens; }
+    public int getMaxOutputTokens() { return maxOutputTokens; }
+    public void setMaxOutputTokens(int maxOutputTokens) { this.maxOutputTokens = maxOutputTokens; }
+    public Duration getTypingInterval() { return typingInterval; }
+    public void setTypingInterval(Duration typingInterval) { this.typingInterval = typingInterval; }
+    public Retry getRetry() { return retry; }
+    public void setRetry(Retry retry) { this.retry = retry; }
     public int getDiscordMessageLimit() { return discordMessageLimit; }
     public void setDiscordMessageLimit(int discordMessageLimit) { this.discordMessageLimit = discordMessageLimit; }
+    public double getContextTruncationChunk() { return contextTruncationChunk; }
+    public void setContextTruncationChunk(double contextTruncationChunk) { this.contextTruncationChunk = contextTruncationChunk; }
+    public Retrieval getRetrieval() { return retrieval; }
+    public void setRetrieval(Retrieval retrieval) { this.retrieval = retrieval; }
 }
@@ -0,0 +1,42 @@
+package it.tao.io.test01.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ambito delle conversazioni: quale parte della cronologia di un canale entra nel prompt
+ */
+@ConfigurationProperties(prefix = "chatbot.conversation")
+@Validated
+public class ConversationProperties {
+
+    /**
+     * CHANNEL: tutta la cronologia del canale; USER: solo i messaggi dell'utente con il bot nel canale;
+     * REPLY_CHAIN: solo la catena di risposte (un messaggio che non risponde a nulla apre una nuova conversazione)
+     */
+    public enum Scope { CHANNEL, USER, REPLY_CHAIN }
+
+    /** Ambito predefinito */
+    @NotNull
+    private Scope scope = Scope.CHANNEL;
+
+    /** Ambito per canale (ID del canale -> ambito); per i thread vale anche l'impostazione del canale padre */
+    private Map<String, Scope> channels = new HashMap<>();
+
+    /** Risposte del bot ricordate per collegarle alla conversazione d'origine */
+    @Min(1)
+    private int replyMemory = 10_000;
+
+    // getters/setters
+    public Scope getScope() { return scope; }
+    public void setScope(Scope scope) { this.scope = scope; }
+    public Map<String, Scope> getChannels() { return channels; }
+    public void setChannels(Map<String, Scope> channels) { this.channels = channels; }
+    public int getReplyMemory() { return replyMemory; }
+    public void setReplyMemory(int replyMemory) { this.replyMemory = replyMemory; }
+}
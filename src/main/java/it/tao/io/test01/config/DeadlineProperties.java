@@ -0,0 +1,46 @@
+package it.tao.io.test01.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.constraints.NotNull;
+import java.time.Duration;
+
+/**
+ * Budget di tempo end-to-end delle richieste, per tipo di canale
+ */
+@ConfigurationProperties(prefix = "chatbot.deadline")
+@Validated
+public class DeadlineProperties {
+
+    /** Abilita la scadenza delle richieste */
+    private boolean enabled = true;
+
+    /** Menzioni nei canali dei server */
+    @NotNull
+    private Duration guild = Duration.ofSeconds(90);
+
+    /** Messaggi diretti */
+    @NotNull
+    private Duration direct = Duration.ofSeconds(120);
+
+    /** Comandi slash: la risposta differita resta modificabile per 15 minuti */
+    @NotNull
+    private Duration interaction = Duration.ofMinutes(10);
+
+    /** Tempo minimo da lasciare a un tentativo OpenRouter perché valga la pena ritentare */
+    @NotNull
+    private Duration minAttempt = Duration.ofSeconds(5);
+
+    // getters/setters
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public Duration getGuild() { return guild; }
+    public void setGuild(Duration guild) { this.guild = guild; }
+    public Duration getDirect() { return direct; }
+    public void setDirect(Duration direct) { this.direct = direct; }
+    public Duration getInteraction() { return interaction; }
+    public void setInteraction(Duration interaction) { this.interaction = interaction; }
+    public Duration getMinAttempt() { return minAttempt; }
+    public void setMinAttempt(Duration minAttempt) { this.minAttempt = minAttempt; }
+}
@@ -0,0 +1,55 @@
+package it.tao.io.test01.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import java.time.Duration;
+
+/**
+ * Riconoscimento degli eventi Discord consegnati più volte (resume del gateway, doppie consegne)
+ */
+@ConfigurationProperties(prefix = "discord.idempotency")
+@Validated
+public class IdempotencyProperties {
+
+    /** Abilita il controllo in memoria sugli ID dei messaggi */
+    private boolean enabled = true;
+
+    /** ID più recenti conservati esattamente (LRU) */
+    @Min(1)
+    private int recentCapacity = 10_000;
+
+    /** Durata di una generazione del filtro di Bloom: un ID resta riconoscibile per almeno questo intervallo */
+    @NotNull
+    private Duration window = Duration.ofMinutes(15);
+
+    /** ID attesi per generazione, usati per dimensionare il filtro */
+    @Min(1)
+    private int expectedPerWindow = 100_000;
+
+    /** Probabilità di falso positivo del filtro: un messaggio nuovo scambiato per duplicato */
+    @DecimalMin(value = "0", inclusive = false)
+    @DecimalMax(value = "0.01")
+    private double falsePositiveRate = 1e-6;
+
+    /** Crea l'indice univoco sull'ID del messaggio Discord nella collezione dei messaggi */
+    private boolean persistentKey = true;
+
+    // getters/setters
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public int getRecentCapacity() { return recentCapacity; }
+    public void setRecentCapacity(int recentCapacity) { this.recentCapacity = recentCapacity; }
+    public Duration getWindow() { return window; }
+    public void setWindow(Duration window) { this.window = window; }
+    public int getExpectedPerWindow() { return expectedPerWindow; }
+    public void setExpectedPerWindow(int expectedPerWindow) { this.expectedPerWindow = expectedPerWindow; }
+    public double getFalsePositiveRate() { return falsePositiveRate; }
+    public void setFalsePositiveRate(double falsePositiveRate) { this.falsePositiveRate = falsePositiveRate; }
+    public boolean isPersistentKey() { return persistentKey; }
+    public void setPersistentKey(boolean persistentKey) { this.persistentKey = persistentKey; }
+}
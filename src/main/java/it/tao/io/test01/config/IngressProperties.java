@@ -0,0 +1,113 @@
+package it.tao.io.test01.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stadio di ingresso tra JDA e la pipeline: concorrenza massima, coda limitata e politica di scarto,
+ * con una quota (bulkhead) per server assegnata tramite livelli
+ */
+@ConfigurationProperties(prefix = "discord.ingress")
+@Validated
+public class IngressProperties {
+
+    /** Risposta alle richieste scartate: reazione sul messaggio o messaggio di cortesia */
+    public enum ShedReply { REACTION, MESSAGE }
+
+    /** Livello usato per i server non elencati in guild-tiers */
+    public static final String DEFAULT_TIER = "standard";
+
+    /** Pipeline in esecuzione contemporaneamente */
+    @Min(1)
+    private int maxConcurrency = 32;
+
+    /** Richieste in attesa (tutte le priorità) oltre le quali si scarta */
+    @Min(0)
+    private int queueCapacity = 256;
+
+    /** Slot globali che nessun server può prendere in prestito oltre la propria quota garantita */
+    @Min(0)
+    private int reserve = 4;
+
+    @NotNull
+    private ShedReply shedReply = ShedReply.REACTION;
+
+    /** Livelli di servizio per nome */
+    @Valid
+    private Map<String, Tier> tiers = new LinkedHashMap<>(Map.of(DEFAULT_TIER, new Tier()));
+
+    /** Livello per server (ID del server -> nome del livello) */
+    private Map<String, String> guildTiers = new HashMap<>();
+
+    /** Livello dei messaggi diretti, trattati come un unico server */
+    @NotBlank
+    private String directTier = DEFAULT_TIER;
+
+    /**
+     * Quota di un server: slot garantiti, tetto anche con prestito, coda propria e peso nella ripartizione
+     */
+    public static class Tier {
+
+        /** Peso relativo nella ripartizione degli slot liberi tra i server in attesa */
+        @Min(1)
+        private int weight = 1;
+
+        /** Slot garantiti: sotto questa soglia il server ha la precedenza sugli slot che si liberano */
+        @Min(1)
+        private int concurrency = 4;
+
+        /** Pipeline massime del server, prestito incluso; 0 = fino al limite globale */
+        @Min(0)
+        private int maxConcurrency = 0;
+
+        /** Richieste in attesa del server */
+        @Min(0)
+        private int queueCapacity = 32;
+
+        // getters/setters
+        public int getWeight() { return weight; }
+        public void setWeight(int weight) { this.weight = weight; }
+        public int getConcurrency() { return concurrency; }
+        public void setConcurrency(int concurrency) { this.concurrency = concurrency; }
+        public int getMaxConcurrency() { return maxConcurrency; }
+        public void setMaxConcurrency(int maxConcurrency) { this.maxConcurrency = maxConcurrency; }
+        public int getQueueCapacity() { return queueCapacity; }
+        public void setQueueCapacity(int queueCapacity) { this.queueCapacity = queueCapacity; }
+    }
+
+    /**
+     * Nome del livello di un server (null per i messaggi diretti)
+     */
+    public String tierNameOf(String guildId) {
+        String name = guildId == null ? directTier : guildTiers.getOrDefault(guildId, DEFAULT_TIER);
+        return tiers.containsKey(name) ? name : DEFAULT_TIER;
+    }
+
+    public Tier tier(String name) {
+        return tiers.getOrDefault(name, new Tier());
+    }
+
+    // getters/setters
+    public int getMaxConcurrency() { return maxConcurrency; }
+    public void setMaxConcurrency(int maxConcurrency) { this.maxConcurrency = maxConcurrency; }
+    public int getQueueCapacity() { return queueCapacity; }
+    public void setQueueCapacity(int queueCapacity) { this.queueCapacity = queueCapacity; }
+    public int getReserve() { return reserve; }
+    public void setReserve(int reserve) { this.reserve = reserve; }
+    public ShedReply getShedReply() { return shedReply; }
+    public void setShedReply(ShedReply shedReply) { this.shedReply = shedReply; }
+    public Map<String, Tier> getTiers() { return tiers; }
+    public void setTiers(Map<String, Tier> tiers) { this.tiers = tiers; }
+    public Map<String, String> getGuildTiers() { return guildTiers; }
+    public void setGuildTiers(Map<String, String> guildTiers) { this.guildTiers = guildTiers; }
+    public String getDirectTier() { return directTier; }
+    public void setDirectTier(String directTier) { this.directTier = directTier; }
+}
@@ -1,6 +1,7 @@
 package it.tao.io.test01.config;
 
 import it.tao.io.test01.presentation.listener.DiscordMessageListener;
+import it.tao.io.test01.presentation.listener.SlashCommandListener;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.requests.GatewayIntent;
@@ -10,6 +11,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.EnumSet;
+
 /**
  * Configurazione per l'integrazione con Discord JDA
  */
@@ -18,24 +21,62 @@ public class JdaConfiguration {
 
     private static final Logger logger = LoggerFactory.getLogger(JdaConfiguration.class);
 
+    /**
+     * Canali di interazione con il bot: menzioni nei messaggi, comandi slash o entrambi
+     */
+    public enum InteractionMode {
+        MENTIONS, SLASH, BOTH;
+
+        boolean mentions() {
+            return this != SLASH;
+        }
+
+        boolean slash() {
+            return this != MENTIONS;
+        }
+    }
+
     @Value("${discord.bot.token}")
     private String discordToken;
 
+    @Value("${discord.interaction.mode:BOTH}")
+    private InteractionMode interactionMode;
+
     @Bean
-    public JDA jda(DiscordMessageListener discordMessageListener) {
+    public JDA jda(DiscordMessageListener discordMessageListener, SlashCommandListener slashCommandListener,
+                   PrefetchProperties prefetchProperties) {
         try {
-            logger.info("Inizializzazione bot Discord...");
-
-            JDA jda = JDABuilder.createDefault(discordToken)
-                    .enableIntents(
-                            GatewayIntent.GUILD_MESSAGES,
-                            GatewayIntent.DIRECT_MESSAGES,
-                            GatewayIntent.MESSAGE_CONTENT,
-                            GatewayIntent.GUILD_MESSAGE_REACTIONS
-                    )
-                    .addEventListeners(discordMessageListener)
-                    .build()
-                    .awaitReady();
+            logger.info("Inizializzazione bot Discord (modalità interazione: {})...", interactionMode);
+
+            JDABuilder builder;
+            if (interactionMode.mentions()) {
+                builder = JDABuilder.createDefault(discordToken)
+                        .enableIntents(
+                                GatewayIntent.GUILD_MESSAGES,
+                                GatewayIntent.DIRECT_MESSAGES,
+                                GatewayIntent.MESSAGE_CONTENT,
+                                GatewayIntent.GUILD_MESSAGE_REACTIONS
+                        )
+                        .addEventListeners(discordMessageListener);
+                if (prefetchProperties.isEnabled()) {
+                    // Gli eventi di digitazione avviano il caricamento anticipato della cronologia
+                    builder.enableIntents(GatewayIntent.GUILD_MESSAGE_TYPING, GatewayIntent.DIRECT_MESSAGE_TYPING);
+                }
+            } else {
+                // Le interazioni arrivano senza intent: il gateway non invia più i messaggi dei canali
+                builder = JDABuilder.createLight(discordToken, EnumSet.noneOf(GatewayIntent.class));
+            }
+            if (interactionMode.slash()) {
+                builder.addEventListeners(slashCommandListener);
+            }
+
+            JDA jda = builder.build().awaitReady();
+
+            if (interactionMode.slash()) {
+                jda.updateCommands().addCommands(SlashCommandListener.commands()).queue(
+                        commands -> logger.info("Registrati {} comandi slash", commands.size()),
+                        error -> logger.error("Registrazione dei comandi slash fallita", error));
+            }
 
             logger.info("Bot Discord inizializzato con successo. Bot: {}",
                        jda.getSelfUser().getAsTag());
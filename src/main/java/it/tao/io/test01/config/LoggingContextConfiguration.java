@@ -0,0 +1,25 @@
+package it.tao.io.test01.config;
+
+import io.micrometer.context.ContextRegistry;
+import it.tao.io.test01.infrastructure.logging.MdcThreadLocalAccessor;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configurazione della propagazione dell'MDC attraverso le pipeline reattive.
+ * Le chiavi elencate vengono lette dal Context di Reactor e ripristinate nell'MDC a ogni cambio di thread
+ * (richiede spring.reactor.context-propagation=auto).
+ */
+@Configuration
+public class LoggingContextConfiguration {
+
+    public static final String CHANNEL_ID = "channelId";
+    public static final String USER_ID = "userId";
+
+    public LoggingContextConfiguration() {
+        ContextRegistry registry = ContextRegistry.getInstance();
+        registry.removeThreadLocalAccessor(CHANNEL_ID);
+        registry.removeThreadLocalAccessor(USER_ID);
+        registry.registerThreadLocalAccessor(new MdcThreadLocalAccessor(CHANNEL_ID));
+        registry.registerThreadLocalAccessor(new MdcThreadLocalAccessor(USER_ID));
+    }
+}
@@ -0,0 +1,119 @@
+package it.tao.io.test01.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Regole di instradamento delle richieste verso modelli e budget di output diversi
+ */
+@ConfigurationProperties(prefix = "openrouter.routing")
+@Validated
+public class ModelRoutingProperties {
+
+    /** Complessità stimata del messaggio utente */
+    public enum Complexity { LOW, MEDIUM, HIGH }
+
+    /** Abilita l'instradamento; se disattivo ogni richiesta usa il modello e i parametri predefiniti */
+    private boolean enabled = true;
+
+    /** max_tokens quando nessuna regola corrisponde */
+    @Min(1)
+    private int defaultMaxTokens = 4000;
+
+    /** temperature quando nessuna regola corrisponde */
+    @DecimalMin("0.0")
+    @DecimalMax("2.0")
+    private double defaultTemperature = 0.7;
+
+    /** Un modello con p95 oltre questa soglia è considerato degradato */
+    @NotNull
+    private Duration maxP95Latency = Duration.ofSeconds(30);
+
+    /** Un modello con tasso di errore oltre questa soglia è considerato degradato */
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double maxErrorRate = 0.2;
+
+    /** Campioni minimi prima di giudicare un modello dalle sue statistiche */
+    @Min(1)
+    private int minSamples = 20;
+
+    /** Limite inferiore di max_tokens quando il budget viene ridotto per rispettare la scadenza */
+    @Min(1)
+    private int minMaxTokens = 256;
+
+    /** Regole valutate in ordine: vince la prima che corrisponde */
+    @Valid
+    private List<Route> routes = new ArrayList<>();
+
+    /**
+     * Regola di instradamento: condizioni (tutte opzionali) e parametri da applicare
+     */
+    public static class Route {
+
+        private String name;
+
+        /** Modelli candidati in ordine di preferenza; vuoto = modello predefinito */
+        private List<String> models = new ArrayList<>();
+
+        /** Complessità massima del messaggio */
+        @NotNull
+        private Complexity maxComplexity = Complexity.HIGH;
+
+        /** Token di prompt stimati massimi (cronologia inclusa) */
+        @Min(0)
+        private int maxPromptTokens = Integer.MAX_VALUE;
+
+        /** Canali a cui si applica; vuoto = tutti */
+        private List<String> channels = new ArrayList<>();
+
+        @Min(1)
+        private int maxTokens = 4000;
+
+        @DecimalMin("0.0")
+        @DecimalMax("2.0")
+        private double temperature = 0.7;
+
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        public List<String> getModels() { return models; }
+        public void setModels(List<String> models) { this.models = models; }
+        public Complexity getMaxComplexity() { return maxComplexity; }
+        public void setMaxComplexity(Complexity maxComplexity) { this.maxComplexity = maxComplexity; }
+        public int getMaxPromptTokens() { return maxPromptTokens; }
+        public void setMaxPromptTokens(int maxPromptTokens) { this.maxPromptTokens = maxPromptTokens; }
+        public List<String> getChannels() { return channels; }
+        public void setChannels(List<String> channels) { this.channels = channels; }
+        public int getMaxTokens() { return maxTokens; }
+        public void setMaxTokens(int maxTokens) { this.maxTokens = maxTokens; }
+        public double getTemperature() { return temperature; }
+        public void setTemperature(double temperature) { this.temperature = temperature; }
+    }
+
+    // getters/setters
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public int getDefaultMaxTokens() { return defaultMaxTokens; }
+    public void setDefaultMaxTokens(int defaultMaxTokens) { this.defaultMaxTokens = defaultMaxTokens; }
+    public double getDefaultTemperature() { return defaultTemperature; }
+    public void setDefaultTemperature(double defaultTemperature) { this.defaultTemperature = defaultTemperature; }
+    public Duration getMaxP95Latency() { return maxP95Latency; }
+    public void setMaxP95Latency(Duration maxP95Latency) { this.maxP95Latency = maxP95Latency; }
+    public double getMaxErrorRate() { return maxErrorRate; }
+    public void setMaxErrorRate(double maxErrorRate) { this.maxErrorRate = maxErrorRate; }
+    public int getMinSamples() { return minSamples; }
+    public void setMinSamples(int minSamples) { this.minSamples = minSamples; }
+    public int getMinMaxTokens() { return minMaxTokens; }
+    public void setMinMaxTokens(int minMaxTokens) { this.minMaxTokens = minMaxTokens; }
+    public List<Route> getRoutes() { return routes; }
+    public void setRoutes(List<Route> routes) { this.routes = routes; }
+}
@@ -0,0 +1,53 @@
+package it.tao.io.test01.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import java.time.Duration;
+
+/**
+ * Caricamento anticipato della cronologia quando un utente inizia a scrivere in un canale attivo
+ */
+@ConfigurationProperties(prefix = "chatbot.prefetch")
+@Validated
+public class PrefetchProperties {
+
+    /** Abilita il prefetch (richiede gli intent di digitazione del gateway) */
+    private boolean enabled = false;
+
+    /** Validità di una cronologia caricata in anticipo e non ancora usata */
+    @NotNull
+    private Duration ttl = Duration.ofSeconds(30);
+
+    /** Cronologie caricate in anticipo conservate contemporaneamente */
+    @Min(1)
+    private int maxEntries = 256;
+
+    /** Un canale è attivo se il bot vi ha risposto entro questo intervallo */
+    @NotNull
+    private Duration activeWindow = Duration.ofMinutes(10);
+
+    /** Canali attivi ricordati (i meno recenti vengono dimenticati) */
+    @Min(1)
+    private int activeChannels = 1000;
+
+    /** Intervallo minimo tra due richieste di riscaldamento della connessione verso OpenRouter; 0 le disabilita */
+    @NotNull
+    private Duration connectionWarmInterval = Duration.ofSeconds(30);
+
+    // getters/setters
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public Duration getTtl() { return ttl; }
+    public void setTtl(Duration ttl) { this.ttl = ttl; }
+    public int getMaxEntries() { return maxEntries; }
+    public void setMaxEntries(int maxEntries) { this.maxEntries = maxEntries; }
+    public Duration getActiveWindow() { return activeWindow; }
+    public void setActiveWindow(Duration activeWindow) { this.activeWindow = activeWindow; }
+    public int getActiveChannels() { return activeChannels; }
+    public void setActiveChannels(int activeChannels) { this.activeChannels = activeChannels; }
+    public Duration getConnectionWarmInterval() { return connectionWarmInterval; }
+    public void setConnectionWarmInterval(Duration connectionWarmInterval) { this.connectionWarmInterval = connectionWarmInterval; }
+}
@@ -0,0 +1,70 @@
+package it.tao.io.test01.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import java.time.Duration;
+
+/**
+ * Limiti di frequenza in ingresso per utente, canale e server (finestra scorrevole)
+ */
+@ConfigurationProperties(prefix = "discord.rate-limit")
+@Validated
+public class RateLimitProperties {
+
+    /** Abilita il limitatore in ingresso */
+    private boolean enabled = true;
+
+    /** Durata minima senza richieste dopo la quale i contatori di una chiave vengono rimossi */
+    @NotNull
+    private Duration idleExpiry = Duration.ofMinutes(10);
+
+    @Valid
+    private Limit user = new Limit(5, Duration.ofMinutes(1));
+
+    @Valid
+    private Limit channel = new Limit(20, Duration.ofMinutes(1));
+
+    @Valid
+    private Limit guild = new Limit(60, Duration.ofMinutes(1));
+
+    /**
+     * Numero massimo di richieste ammesse nella finestra; 0 disabilita il limite
+     */
+    public static class Limit {
+
+        @Min(0)
+        private int requests;
+
+        @NotNull
+        private Duration window;
+
+        public Limit() {
+        }
+
+        public Limit(int requests, Duration window) {
+            this.requests = requests;
+            this.window = window;
+        }
+
+        public int getRequests() { return requests; }
+        public void setRequests(int requests) { this.requests = requests; }
+        public Duration getWindow() { return window; }
+        public void setWindow(Duration window) { this.window = window; }
+    }
+
+    // getters/setters
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public Duration getIdleExpiry() { return idleExpiry; }
+    public void setIdleExpiry(Duration idleExpiry) { this.idleExpiry = idleExpiry; }
+    public Limit getUser() { return user; }
+    public void setUser(Limit user) { this.user = user; }
+    public Limit getChannel() { return channel; }
+    public void setChannel(Limit channel) { this.channel = channel; }
+    public Limit getGuild() { return guild; }
+    public void setGuild(Limit guild) { this.guild = guild; }
+}
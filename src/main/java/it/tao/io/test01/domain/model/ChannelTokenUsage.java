@@ -0,0 +1,100 @@
+package it.tao.io.test01.domain.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Contabilità cumulativa dei token consumati per canale
+ */
+@Document(collection = "channel_token_usage")
+public class ChannelTokenUsage {
+
+    @Id
+    private String channelId;
+
+    private long promptTokens;
+    private long completionTokens;
+    private long cachedPromptTokens;
+    private long requests;
+    private Instant lastUpdated;
+
+    // Costruttore vuoto per MongoDB
+    public ChannelTokenUsage() {
+    }
+
+    public ChannelTokenUsage(String channelId, long promptTokens, long completionTokens, long requests, Instant lastUpdated) {
+        this.channelId = channelId;
+        this.promptTokens = promptTokens;
+        this.completionTokens = completionTokens;
+        this.requests = requests;
+        this.lastUpdated = lastUpdated;
+    }
+
+    // Metodo factory per un canale senza consumi registrati
+    public static ChannelTokenUsage empty(String channelId) {
+        return new ChannelTokenUsage(channelId, 0, 0, 0, null);
+    }
+
+    // Getters e Setters
+    public String getChannelId() {
+        return channelId;
+    }
+
+    public void setChannelId(String channelId) {
+        this.channelId = channelId;
+    }
+
+    public long getPromptTokens() {
+        return promptTokens;
+    }
+
+    public void setPromptTokens(long promptTokens) {
+        this.promptTokens = promptTokens;
+    }
+
+    public long getCompletionTokens() {
+        return completionTokens;
+    }
+
+    public void setCompletionTokens(long completionTokens) {
+        this.completionTokens = completionTokens;
+    }
+
+    public long getCachedPromptTokens() {
+        return cachedPromptTokens;
+    }
+
+    public void setCachedPromptTokens(long cachedPromptTokens) {
+        this.cachedPromptTokens = cachedPromptTokens;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public void setRequests(long requests) {
+        this.requests = requests;
+    }
+
+    public Instant getLastUpdated() {
+        return lastUpdated;
+    }
+
+    public void setLastUpdated(Instant lastUpdated) {
+        this.lastUpdated = lastUpdated;
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelTokenUsage{" +
+                "channelId='" + channelId + '\'' +
+                ", promptTokens=" + promptTokens +
+                ", completionTokens=" + completionTokens +
+                ", cachedPromptTokens=" + cachedPromptTokens +
+                ", requests=" + requests +
+                ", lastUpdated=" + lastUpdated +
+                '}';
+    }
+}
@@ -0,0 +1,42 @@
+package it.tao.io.test01.domain.model;
+
+/**
+ * Identifica una conversazione: l'intero canale (conversationId null) oppure una sua sotto-conversazione
+ * (messaggi di un utente, catena di risposte). I thread Discord sono canali a sé e hanno già una cronologia propria.
+ */
+public record ConversationKey(String channelId, String conversationId) {
+
+    public static ConversationKey channel(String channelId) {
+        return new ConversationKey(channelId, null);
+    }
+
+    public static ConversationKey user(String channelId, String userId) {
+        return new ConversationKey(channelId, "user:" + userId);
+    }
+
+    public static ConversationKey replyChain(String channelId, String rootMessageId) {
+        return new ConversationKey(channelId, "reply:" + rootMessageId);
+    }
+
+    public static ConversationKey of(ConversationMessage message) {
+        return new ConversationKey(message.getChannelId(), message.getConversationId());
+    }
+
+    public boolean isScoped() {
+        return conversationId != null;
+    }
+
+    /**
+     * Chiave per le strutture in memoria (indice di recupero, prefetch)
+     */
+    public String indexKey() {
+        return conversationId != null ? channelId + ":" + conversationId : channelId;
+    }
+
+    /**
+     * Vero se la chiave in memoria appartiene al canale indicato, per qualsiasi sotto-conversazione
+     */
+    public static boolean belongsTo(String indexKey, String channelId) {
+        return indexKey.equals(channelId) || indexKey.startsWith(channelId + ":");
+    }
+}
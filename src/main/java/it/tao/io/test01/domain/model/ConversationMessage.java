@@ -4,6 +4,7 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
+import java.util.Map;
 
 /**
  * Entità di dominio che rappresenta un messaggio di conversazione
@@ -15,9 +16,14 @@ public class ConversationMessage {
     private String id;
 
     private String channelId;
+    private String conversationId; // sotto-conversazione del canale (utente, catena di risposte); null = intero canale
     private String role; // "user" o "assistant"
     private String content;
     private Instant timestamp;
+    private Integer tokenCount; // token del contenuto: stimati per "user", effettivi (completion) per "assistant"
+    private Integer promptTokens; // token di prompt effettivi della richiesta che ha generato la risposta
+    private Map<String, Integer> terms; // frequenze dei termini per l'indice di recupero
+    private String sourceMessageId; // ID del messaggio Discord (o dell'interazione) di origine, univoco per "user"
 
     // Costruttore vuoto per MongoDB
     public ConversationMessage() {
@@ -58,6 +64,14 @@ public class ConversationMessage {
         this.channelId = channelId;
     }
 
+    public String getConversationId() {
+        return conversationId;
+    }
+
+    public void setConversationId(String conversationId) {
+        this.conversationId = conversationId;
+    }
+
     public String getRole() {
         return role;
     }
@@ -82,14 +96,50 @@ public class ConversationMessage {
         this.timestamp = timestamp;
     }
 
+    public Integer getTokenCount() {
+        return tokenCount;
+    }
+
+    public void setTokenCount(Integer tokenCount) {
+        this.tokenCount = tokenCount;
+    }
+
+    public Integer getPromptTokens() {
+        return promptTokens;
+    }
+
+    public void setPromptTokens(Integer promptTokens) {
+        this.promptTokens = promptTokens;
+    }
+
+    public Map<String, Integer> getTerms() {
+        return terms;
+    }
+
+    public void setTerms(Map<String, Integer> terms) {
+        this.terms = terms;
+    }
+
+    public String getSourceMessageId() {
+        return sourceMessageId;
+    }
+
+    public void setSourceMessageId(String sourceMessageId) {
+        this.sourceMessageId = sourceMessageId;
+    }
+
     @Override
     public String toString() {
         return "ConversationMessage{" +
                 "id='" + id + '\'' +
                 ", channelId='" + channelId + '\'' +
+                ", conversationId='" + conversationId + '\'' +
                 ", role='" + role + '\'' +
                 ", content='" + content + '\'' +
                 ", timestamp=" + timestamp +
+                ", tokenCount=" + tokenCount +
+                ", promptTokens=" + promptTokens +
+                ", sourceMessageId='" + sourceMessageId + '\'' +
                 '}';
     }
 }
@@ -0,0 +1,66 @@
+package it.tao.io.test01.domain.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Valori di prestazione modificati a runtime per un ambito: "global", "guild:<id>" o "channel:<id>".
+ * I valori sono conservati come testo (chiave dell'impostazione -> valore) e validati al caricamento.
+ */
+@Document(collection = "settings_overrides")
+public class SettingsOverride {
+
+    @Id
+    private String target;
+
+    private Map<String, String> values = new HashMap<>();
+    private Instant updatedAt;
+
+    // Costruttore vuoto per MongoDB
+    public SettingsOverride() {
+    }
+
+    public SettingsOverride(String target, Map<String, String> values, Instant updatedAt) {
+        this.target = target;
+        this.values = values;
+        this.updatedAt = updatedAt;
+    }
+
+    // Getters e Setters
+    public String getTarget() {
+        return target;
+    }
+
+    public void setTarget(String target) {
+        this.target = target;
+    }
+
+    public Map<String, String> getValues() {
+        return values;
+    }
+
+    public void setValues(Map<String, String> values) {
+        this.values = values;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "SettingsOverride{" +
+                "target='" + target + '\'' +
+                ", values=" + values +
+                ", updatedAt=" + updatedAt +
+                '}';
+    }
+}
@@ -0,0 +1,16 @@
+package it.tao.io.test01.domain.model;
+
+/**
+ * Consumo effettivo di token riportato dal provider per una singola richiesta
+ * (cachedPromptTokens: token di prompt serviti dalla prompt cache del provider)
+ */
+public record TokenUsage(int promptTokens, int completionTokens, int totalTokens, int cachedPromptTokens) {
+
+    public static TokenUsage empty() {
+        return new TokenUsage(0, 0, 0, 0);
+    }
+
+    public boolean isEmpty() {
+        return totalTokens == 0 && promptTokens == 0 && completionTokens == 0;
+    }
+}
@@ -0,0 +1,27 @@
+package it.tao.io.test01.domain.repository;
+
+import it.tao.io.test01.domain.model.ChannelTokenUsage;
+import it.tao.io.test01.domain.model.TokenUsage;
+import reactor.core.publisher.Mono;
+
+/**
+ * Repository interface per la contabilità dei token per canale
+ * Definisce il contratto per la persistenza, implementato nell'infrastructure layer
+ */
+public interface ChannelTokenUsageRepository {
+
+    /**
+     * Somma atomicamente il consumo di una richiesta ai totali del canale
+     */
+    Mono<Void> addUsage(String channelId, TokenUsage usage);
+
+    /**
+     * Recupera i totali di un canale
+     */
+    Mono<ChannelTokenUsage> findByChannelId(String channelId);
+
+    /**
+     * Elimina i totali di un canale
+     */
+    Mono<Void> deleteByChannelId(String channelId);
+}
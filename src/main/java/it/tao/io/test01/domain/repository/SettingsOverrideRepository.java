@@ -0,0 +1,32 @@
+package it.tao.io.test01.domain.repository;
+
+import it.tao.io.test01.domain.model.SettingsOverride;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Repository interface per le impostazioni di prestazione modificate a runtime
+ * Definisce il contratto per la persistenza, implementato nell'infrastructure layer
+ */
+public interface SettingsOverrideRepository {
+
+    /**
+     * Recupera tutte le modifiche, di ogni ambito
+     */
+    Flux<SettingsOverride> findAll();
+
+    /**
+     * Imposta atomicamente un valore nell'ambito, creandolo se non esiste
+     */
+    Mono<Void> setValue(String target, String key, String value);
+
+    /**
+     * Rimuove un valore dall'ambito, che torna a ereditare quello dell'ambito superiore
+     */
+    Mono<Void> unsetValue(String target, String key);
+
+    /**
+     * Elimina tutte le modifiche di un ambito
+     */
+    Mono<Void> deleteByTarget(String target);
+}
@@ -0,0 +1,225 @@
+package it.tao.io.test01.domain.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.tao.io.test01.domain.model.ConversationKey;
+import it.tao.io.test01.domain.model.ConversationMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Indice invertito BM25 in memoria, uno per conversazione (canale o sotto-conversazione), sulla cronologia delle conversazioni.
+ * I termini di ogni messaggio sono calcolati una volta al salvataggio e persistiti con il messaggio:
+ * l'indice di un canale si ricostruisce dalla cronologia caricata senza rianalizzare il testo,
+ * poi viene aggiornato in modo incrementale. I canali meno usati di recente vengono scaricati.
+ */
+@Component
+public class ChannelRetrievalIndex {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final TextAnalyzer analyzer;
+    private final int maxChannels;
+    private final LinkedHashMap<String, ChannelIndex> channels = new LinkedHashMap<>(64, 0.75f, true);
+    private final Timer queryTimer;
+
+    public ChannelRetrievalIndex(TextAnalyzer analyzer, MeterRegistry meterRegistry,
+                                 @Value("${app.retrieval.max-channels:1000}") int maxChannels) {
+        this.analyzer = analyzer;
+        this.maxChannels = maxChannels;
+        this.queryTimer = Timer.builder("retrieval.query.duration")
+                .description("Durata delle interrogazioni all'indice di recupero")
+                .register(meterRegistry);
+        Gauge.builder("retrieval.index.channels", this, ChannelRetrievalIndex::channelCount)
+                .description("Canali con indice caricato in memoria")
+                .register(meterRegistry);
+        Gauge.builder("retrieval.index.postings", this, ChannelRetrievalIndex::postingCount)
+                .description("Coppie termine-messaggio indicizzate")
+                .register(meterRegistry);
+        Gauge.builder("retrieval.index.documents", this, ChannelRetrievalIndex::documentCount)
+                .description("Messaggi indicizzati")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Termini da persistere con il messaggio
+     */
+    public Map<String, Integer> analyze(String content) {
+        return analyzer.termFrequencies(content);
+    }
+
+    /**
+     * Aggiunge un messaggio appena salvato, solo se l'indice del canale è già caricato
+     */
+    public void add(ConversationMessage message) {
+        ChannelIndex index;
+        synchronized (channels) {
+            index = channels.get(ConversationKey.of(message).indexKey());
+        }
+        if (index != null) {
+            index.add(message.getId(), termsOf(message));
+        }
+    }
+
+    /**
+     * Messaggi più pertinenti alla domanda tra quelli della cronologia, esclusi quelli indicati.
+     * Se l'indice della conversazione non è in memoria viene costruito dalla cronologia fornita.
+     */
+    public List<String> search(String conversationKey, List<ConversationMessage> history, String query,
+                               Set<String> excluded, int topK) {
+        Map<String, Integer> queryTerms = analyzer.termFrequencies(query);
+        if (queryTerms.isEmpty() || topK <= 0) {
+            return List.of();
+        }
+        ChannelIndex index = load(conversationKey, history);
+        return queryTimer.record(() -> index.search(queryTerms.keySet(), excluded, topK));
+    }
+
+    /**
+     * Scarta gli indici di un canale e delle sue sotto-conversazioni (es. dopo la cancellazione della cronologia)
+     */
+    public void drop(String channelId) {
+        synchronized (channels) {
+            channels.keySet().removeIf(key -> ConversationKey.belongsTo(key, channelId));
+        }
+    }
+
+    private ChannelIndex load(String conversationKey, List<ConversationMessage> history) {
+        ChannelIndex index;
+        synchronized (channels) {
+            index = channels.get(conversationKey);
+            if (index == null) {
+                index = new ChannelIndex();
+                channels.put(conversationKey, index);
+                var iterator = channels.entrySet().iterator();
+                while (channels.size() > maxChannels && iterator.hasNext()) {
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+        }
+        // Allinea l'indice alla cronologia: aggiunge i messaggi non ancora indicizzati
+        index.addMissing(history, this::termsOf);
+        return index;
+    }
+
+    private Map<String, Integer> termsOf(ConversationMessage message) {
+        // Messaggi salvati prima dell'indicizzazione non hanno termini persistiti
+        return message.getTerms() != null ? message.getTerms() : analyzer.termFrequencies(message.getContent());
+    }
+
+    private int channelCount() {
+        synchronized (channels) {
+            return channels.size();
+        }
+    }
+
+    private long postingCount() {
+        return snapshot().stream().mapToLong(ChannelIndex::postings).sum();
+    }
+
+    private long documentCount() {
+        return snapshot().stream().mapToLong(ChannelIndex::documents).sum();
+    }
+
+    private Collection<ChannelIndex> snapshot() {
+        synchronized (channels) {
+            return new ArrayList<>(channels.values());
+        }
+    }
+
+    /**
+     * Liste di posting (termine -> messaggio -> frequenza) e lunghezze dei documenti di un canale
+     */
+    private static final class ChannelIndex {
+
+        private final Map<String, Map<String, Integer>> postings = new HashMap<>();
+        private final Map<String, Integer> lengths = new HashMap<>();
+        private long totalLength;
+        private long postingCount;
+
+        synchronized void addMissing(List<ConversationMessage> history, Function<ConversationMessage, Map<String, Integer>> terms) {
+            for (ConversationMessage message : history) {
+                if (message.getId() != null && !lengths.containsKey(message.getId())) {
+                    add(message.getId(), terms.apply(message));
+                }
+            }
+        }
+
+        synchronized void add(String documentId, Map<String, Integer> terms) {
+            if (documentId == null || lengths.containsKey(documentId)) {
+                return;
+            }
+            int length = 0;
+            for (Map.Entry<String, Integer> term : terms.entrySet()) {
+                postings.computeIfAbsent(term.getKey(), t -> new HashMap<>()).put(documentId, term.getValue());
+                length += term.getValue();
+                postingCount++;
+            }
+            lengths.put(documentId, length);
+            totalLength += length;
+        }
+
+        synchronized List<String> search(Set<String> queryTerms, Set<String> excluded, int topK) {
+            int documents = lengths.size();
+            if (documents == 0) {
+                return List.of();
+            }
+            double averageLength = (double) totalLength / documents;
+
+            Map<String, Double> scores = new HashMap<>();
+            for (String term : queryTerms) {
+                Map<String, Integer> posting = postings.get(term);
+                if (posting == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (documents - posting.size() + 0.5) / (posting.size() + 0.5));
+                for (Map.Entry<String, Integer> entry : posting.entrySet()) {
+                    if (excluded.contains(entry.getKey())) {
+                        continue;
+                    }
+                    double tf = entry.getValue();
+                    double norm = K1 * (1 - B + B * lengths.get(entry.getKey()) / averageLength);
+                    scores.merge(entry.getKey(), idf * tf * (K1 + 1) / (tf + norm), Double::sum);
+                }
+            }
+
+            // Selezione dei migliori k senza ordinare tutti i candidati
+            PriorityQueue<Map.Entry<String, Double>> best = new PriorityQueue<>(Map.Entry.comparingByValue());
+            for (Map.Entry<String, Double> score : scores.entrySet()) {
+                best.offer(score);
+                if (best.size() > topK) {
+                    best.poll();
+                }
+            }
+            // La coda restituisce prima il punteggio più basso: svuotandola si ottiene l'ordine crescente
+            List<String> result = new ArrayList<>(best.size());
+            while (!best.isEmpty()) {
+                result.add(best.poll().getKey());
+            }
+            Collections.reverse(result);
+            return result;
+        }
+
+        synchronized long postings() {
+            return postingCount;
+        }
+
+        synchronized long documents() {
+            return lengths.size();
+        }
+    }
+}
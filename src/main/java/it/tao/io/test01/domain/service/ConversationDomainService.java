@@ -1,6 +1,9 @@
 package it.tao.io.test01.domain.service;
 
+import it.tao.io.test01.domain.model.ChannelTokenUsage;
+import it.tao.io.test01.domain.model.ConversationKey;
 import it.tao.io.test01.domain.model.ConversationMessage;
+import it.tao.io.test01.domain.model.TokenUsage;
 import it.tao.io.test01.infrastructure.client.dto.OpenRouterMessage;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -17,11 +20,49 @@ public interface ConversationDomainService {
      */
     Mono<ConversationMessage> addMessage(String channelId, String role, String content);
 
+    /**
+     * Aggiunge un messaggio utente legato al messaggio Discord di origine.
+     * Fallisce con DuplicateMessageException se lo stesso messaggio è già stato salvato.
+     */
+    Mono<ConversationMessage> addUserMessage(ConversationKey conversation, String content, String sourceMessageId);
+
+    /**
+     * Aggiunge la risposta dell'assistente con il consumo di token effettivo della richiesta
+     */
+    Mono<ConversationMessage> addAssistantMessage(ConversationKey conversation, String content, TokenUsage usage);
+
     /**
      * Recupera la cronologia di conversazione per un canale
      */
     Flux<ConversationMessage> getConversationHistory(String channelId);
 
+    /**
+     * Recupera la cronologia di una conversazione: l'intero canale o solo la sotto-conversazione
+     */
+    Flux<ConversationMessage> getConversationHistory(ConversationKey conversation);
+
+    /**
+     * Conversazione a cui appartiene il messaggio Discord indicato, se è stato salvato
+     */
+    Mono<ConversationKey> findConversationBySourceMessage(String channelId, String sourceMessageId);
+
+    /**
+     * Elimina i messaggi utente salvati per un messaggio Discord e per tutte le sue versioni modificate
+     */
+    Mono<Long> removeMessageVersions(String channelId, String messageId);
+
+    /**
+     * Carica in anticipo la cronologia di un canale in cui il bot è attivo; false se il prefetch non è stato avviato
+     */
+    boolean prefetchHistory(ConversationKey conversation);
+
+    /**
+     * Seleziona la parte di cronologia da inviare: intera se rientra nel budget di contesto (la troncatura a blocchi
+     * mantiene stabile il prefisso per la prompt cache), altrimenti coda recente più messaggi pertinenti alla domanda
+     */
+    List<ConversationMessage> selectRelevantHistory(ConversationKey conversation, List<ConversationMessage> history,
+                                                    String query, int maxContextTokens);
+
     /**
      * Converte i messaggi in formato compatibile con OpenRouter
      */
@@ -32,6 +73,21 @@ public interface ConversationDomainService {
      */
     List<OpenRouterMessage> manageTokenLimit(List<OpenRouterMessage> messages, int maxTokens);
 
+    /**
+     * Gestisce il limite di token usando la stima calibrata per il modello indicato
+     */
+    List<OpenRouterMessage> manageTokenLimit(List<OpenRouterMessage> messages, int maxTokens, String model);
+
+    /**
+     * Registra il consumo effettivo di una richiesta: calibra lo stimatore del modello e aggiorna i totali del canale
+     */
+    Mono<Void> recordUsage(String channelId, String model, List<OpenRouterMessage> prompt, TokenUsage usage);
+
+    /**
+     * Recupera i totali di token consumati da un canale
+     */
+    Mono<ChannelTokenUsage> getChannelTokenUsage(String channelId);
+
     /**
      * Cancella la cronologia di un canale
      */
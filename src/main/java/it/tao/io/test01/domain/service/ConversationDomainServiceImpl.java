@@ -1,16 +1,28 @@
 package it.tao.io.test01.domain.service;
 
+import it.tao.io.test01.config.AppProperties;
+import it.tao.io.test01.domain.model.ChannelTokenUsage;
+import it.tao.io.test01.domain.model.ConversationKey;
 import it.tao.io.test01.domain.model.ConversationMessage;
+import it.tao.io.test01.domain.model.TokenUsage;
+import it.tao.io.test01.domain.repository.ChannelTokenUsageRepository;
 import it.tao.io.test01.infrastructure.repository.MongoConversationMessageRepository;
 import it.tao.io.test01.infrastructure.client.dto.OpenRouterMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * Implementazione del Domain Service per la gestione delle conversazioni
@@ -19,12 +31,26 @@ import java.util.List;
 public class ConversationDomainServiceImpl implements ConversationDomainService {
 
     private static final Logger logger = LoggerFactory.getLogger(ConversationDomainServiceImpl.class);
-    private static final int AVERAGE_TOKENS_PER_CHAR = 4;
 
     private final MongoConversationMessageRepository repository;
+    private final ChannelTokenUsageRepository tokenUsageRepository;
+    private final TokenEstimator tokenEstimator;
+    private final AppProperties appProperties;
+    private final ChannelRetrievalIndex retrievalIndex;
+    private final ConversationPrefetchBuffer prefetchBuffer;
 
-    public ConversationDomainServiceImpl(MongoConversationMessageRepository repository) {
+    public ConversationDomainServiceImpl(MongoConversationMessageRepository repository,
+                                         ChannelTokenUsageRepository tokenUsageRepository,
+                                         TokenEstimator tokenEstimator,
+                                         AppProperties appProperties,
+                                         ChannelRetrievalIndex retrievalIndex,
+                                         ConversationPrefetchBuffer prefetchBuffer) {
         this.repository = repository;
+        this.tokenUsageRepository = tokenUsageRepository;
+        this.tokenEstimator = tokenEstimator;
+        this.appProperties = appProperties;
+        this.retrievalIndex = retrievalIndex;
+        this.prefetchBuffer = prefetchBuffer;
     }
 
     @Override
@@ -34,54 +60,263 @@ public class ConversationDomainServiceImpl implements ConversationDomainService
         ConversationMessage message = "user".equals(role)
             ? ConversationMessage.createUserMessage(channelId, content)
             : ConversationMessage.createAssistantMessage(channelId, content);
+        message.setTokenCount(estimateTokens(content));
+        message.setTerms(retrievalIndex.analyze(content));
 
+        return save(message);
+    }
+
+    @Override
+    public Mono<ConversationMessage> addUserMessage(ConversationKey conversation, String content, String sourceMessageId) {
+        logger.debug("Aggiunta messaggio utente: conversazione={}, origine={}, lunghezza={}",
+                    conversation.indexKey(), sourceMessageId, content.length());
+
+        ConversationMessage message = ConversationMessage.createUserMessage(conversation.channelId(), content);
+        message.setConversationId(conversation.conversationId());
+        message.setSourceMessageId(sourceMessageId);
+        message.setTokenCount(estimateTokens(content));
+        message.setTerms(retrievalIndex.analyze(content));
+
+        return save(message);
+    }
+
+    @Override
+    public Mono<ConversationMessage> addAssistantMessage(ConversationKey conversation, String content, TokenUsage usage) {
+        logger.debug("Aggiunta risposta assistente: conversazione={}, lunghezza={}, token={}",
+                    conversation.indexKey(), content.length(), usage);
+
+        ConversationMessage message = ConversationMessage.createAssistantMessage(conversation.channelId(), content);
+        message.setConversationId(conversation.conversationId());
+        if (usage != null && !usage.isEmpty()) {
+            message.setTokenCount(usage.completionTokens());
+            message.setPromptTokens(usage.promptTokens());
+        } else {
+            message.setTokenCount(estimateTokens(content));
+        }
+        message.setTerms(retrievalIndex.analyze(content));
+
+        return save(message);
+    }
+
+    private Mono<ConversationMessage> save(ConversationMessage message) {
         return repository.save(message)
-            .doOnSuccess(saved -> logger.debug("Messaggio salvato con ID: {}", saved.getId()))
-            .doOnError(error -> logger.error("Errore nel salvataggio del messaggio", error));
+            .doOnSuccess(saved -> {
+                logger.debug("Messaggio salvato con ID: {}", saved.getId());
+                retrievalIndex.add(saved);
+                prefetchBuffer.onSaved(saved);
+            })
+            // Violazione dell'indice univoco sul messaggio di origine: evento già elaborato (anche da un'altra istanza)
+            .onErrorMap(DuplicateKeyException.class, error -> new DuplicateMessageException(message.getSourceMessageId(), error))
+            .doOnError(error -> !(error instanceof DuplicateMessageException),
+                       error -> logger.error("Errore nel salvataggio del messaggio", error));
     }
 
     @Override
     public Flux<ConversationMessage> getConversationHistory(String channelId) {
-        logger.debug("Recupero cronologia per canale: {}", channelId);
-        return repository.findByChannelIdOrderByTimestamp(channelId)
-            .doOnComplete(() -> logger.debug("Cronologia recuperata per canale: {}", channelId));
+        return getConversationHistory(ConversationKey.channel(channelId));
+    }
+
+    @Override
+    public Flux<ConversationMessage> getConversationHistory(ConversationKey conversation) {
+        logger.debug("Recupero cronologia per conversazione: {}", conversation.indexKey());
+        Optional<Mono<List<ConversationMessage>>> prefetched = prefetchBuffer.take(conversation);
+        if (prefetched.isPresent()) {
+            // Caricata mentre l'utente scriveva: se il caricamento è fallito si ripete la query
+            logger.debug("Cronologia caricata in anticipo per conversazione: {}", conversation.indexKey());
+            return prefetched.get()
+                .onErrorResume(error -> findHistory(conversation).collectList())
+                .flatMapMany(Flux::fromIterable);
+        }
+        return findHistory(conversation)
+            .doOnComplete(() -> logger.debug("Cronologia recuperata per conversazione: {}", conversation.indexKey()));
+    }
+
+    private Flux<ConversationMessage> findHistory(ConversationKey conversation) {
+        return conversation.isScoped()
+            ? repository.findByChannelIdAndConversationIdOrderByTimestamp(conversation.channelId(), conversation.conversationId())
+            : repository.findByChannelIdAndConversationIdIsNullOrderByTimestamp(conversation.channelId());
+    }
+
+    @Override
+    public Mono<ConversationKey> findConversationBySourceMessage(String channelId, String sourceMessageId) {
+        return repository.findFirstByChannelIdAndSourceMessageId(channelId, sourceMessageId)
+            .map(ConversationKey::of);
+    }
+
+    @Override
+    public Mono<Long> removeMessageVersions(String channelId, String messageId) {
+        // Origine uguale all'ID (prima versione) o ID:istante di modifica; gli ID Discord sono numerici
+        return repository.deleteByChannelIdAndSourceMessageIdRegex(channelId, "^" + messageId + "(:|$)")
+            .doOnSuccess(removed -> {
+                prefetchBuffer.invalidate(channelId);
+                logger.debug("Rimosse {} versioni del messaggio {} - Canale: {}", removed, messageId, channelId);
+            });
+    }
+
+    @Override
+    public boolean prefetchHistory(ConversationKey conversation) {
+        return prefetchBuffer.prefetch(conversation, () -> findHistory(conversation).collectList());
+    }
+
+    @Override
+    public List<ConversationMessage> selectRelevantHistory(ConversationKey conversation, List<ConversationMessage> history,
+                                                           String query, int maxContextTokens) {
+        AppProperties.Retrieval retrieval = appProperties.getRetrieval();
+        if (!retrieval.isEnabled() || history.size() <= retrieval.getTailMessages()) {
+            return history;
+        }
+
+        int[] rawTokens = new int[history.size()];
+        long totalTokens = 0;
+        for (int i = 0; i < rawTokens.length; i++) {
+            rawTokens[i] = tokenEstimator.rawEstimate(history.get(i).getContent()) + 4;
+            totalTokens += rawTokens[i];
+        }
+        // Finché la cronologia rientra nel budget di contesto la gestisce la troncatura a blocchi, che mantiene
+        // identico il prefisso tra i turni: la selezione per pertinenza cambierebbe a ogni domanda e annullerebbe la prompt cache
+        if (totalTokens <= Math.max(retrieval.getActivationTokens(), maxContextTokens)) {
+            return history;
+        }
+
+        int tailStart = history.size() - retrieval.getTailMessages();
+        Set<String> tailIds = new HashSet<>();
+        long budget = retrieval.getMaxContextTokens();
+        for (int i = tailStart; i < history.size(); i++) {
+            tailIds.add(history.get(i).getId());
+            budget -= rawTokens[i];
+        }
+
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < tailStart; i++) {
+            positions.put(history.get(i).getId(), i);
+        }
+
+        // Messaggi precedenti più pertinenti, poi riportati in ordine cronologico entro il budget residuo
+        List<String> retrievedIds = retrievalIndex.search(conversation.indexKey(), history, query, tailIds, retrieval.getTopK());
+        Set<Integer> retrieved = new TreeSet<>();
+        for (String id : retrievedIds) {
+            Integer position = positions.get(id);
+            if (position == null || retrieved.contains(position)) {
+                continue;
+            }
+            // Domanda e risposta viaggiano insieme: un turno a metà confonde il modello
+            int partner = "user".equals(history.get(position).getRole()) ? position + 1 : position - 1;
+            boolean withPartner = partner >= 0 && partner < tailStart && !retrieved.contains(partner);
+            int cost = rawTokens[position] + (withPartner ? rawTokens[partner] : 0);
+            if (cost <= budget) {
+                retrieved.add(position);
+                if (withPartner) {
+                    retrieved.add(partner);
+                }
+                budget -= cost;
+            }
+        }
+
+        List<ConversationMessage> selected = new ArrayList<>(retrieved.size() + retrieval.getTailMessages());
+        retrieved.forEach(position -> selected.add(history.get(position)));
+        selected.addAll(history.subList(tailStart, history.size()));
+
+        logger.debug("Contesto per conversazione {}: {} messaggi recuperati + {} recenti su {} totali",
+                    conversation.indexKey(), retrieved.size(), history.size() - tailStart, history.size());
+        return selected;
     }
 
     @Override
     public List<OpenRouterMessage> convertToOpenRouterFormat(List<ConversationMessage> messages) {
         return messages.stream()
-            .map(msg -> new OpenRouterMessage(msg.getRole(), msg.getContent()))
+            .map(msg -> new OpenRouterMessage(msg.getRole(), msg.getContent(), msg.getId()))
             .toList();
     }
 
     @Override
     public List<OpenRouterMessage> manageTokenLimit(List<OpenRouterMessage> messages, int maxTokens) {
-        List<OpenRouterMessage> managedMessages = new ArrayList<>(messages);
+        return manageTokenLimit(messages, maxTokens, null);
+    }
+
+    @Override
+    public List<OpenRouterMessage> manageTokenLimit(List<OpenRouterMessage> messages, int maxTokens, String model) {
+        // Il confronto avviene in token grezzi: il budget viene riportato in scala con il rapporto del modello
+        double ratio = tokenEstimator.ratio(model);
+        int rawBudget = (int) (maxTokens / ratio);
 
-        int currentTokenCount = messages.stream()
-            .mapToInt(msg -> estimateTokens(msg.getContent()))
-            .sum();
+        int[] rawTokens = new int[messages.size()];
+        int currentTokenCount = 0;
+        for (int i = 0; i < rawTokens.length; i++) {
+            rawTokens[i] = tokenEstimator.rawMessageEstimate(messages.get(i));
+            currentTokenCount += rawTokens[i];
+        }
 
-        int removedCount = 0;
-        while (currentTokenCount > maxTokens && !managedMessages.isEmpty()) {
-            OpenRouterMessage removed = managedMessages.removeFirst();
-            currentTokenCount -= estimateTokens(removed.getContent());
-            removedCount++;
+        if (currentTokenCount <= rawBudget) {
+            return new ArrayList<>(messages);
         }
 
-        if (removedCount > 0) {
-            logger.info("Rimossi {} messaggi per gestire il limite di token. Token attuali: {}",
-                       removedCount, currentTokenCount);
+        // Taglio allineato a blocchi: resta fermo finché la coda non supera di nuovo il budget
+        int chunkTokens = (int) (rawBudget * appProperties.getContextTruncationChunk());
+        int cut = chunkTokens > 0 ? findChunkAlignedCut(rawTokens, currentTokenCount, rawBudget, chunkTokens) : 0;
+        for (int i = 0; i < cut; i++) {
+            currentTokenCount -= rawTokens[i];
         }
 
-        return managedMessages;
+        // Se nessun confine di blocco basta (es. un singolo messaggio enorme) si rimuove messaggio per messaggio
+        while (currentTokenCount > rawBudget && cut < rawTokens.length) {
+            currentTokenCount -= rawTokens[cut];
+            cut++;
+        }
+
+        logger.info("Rimossi {} messaggi per gestire il limite di token. Token stimati: {} (rapporto calibrazione {})",
+                   cut, tokenEstimator.calibrate(model, currentTokenCount), String.format("%.3f", ratio));
+
+        return new ArrayList<>(messages.subList(cut, messages.size()));
+    }
+
+    /**
+     * Trova il primo confine di blocco da cui la coda della cronologia rientra nel budget.
+     * I confini dipendono solo dai token cumulati dall'inizio della cronologia, che cresce soltanto in coda:
+     * lo stesso taglio viene quindi scelto a ogni turno finché non serve scartare un altro blocco intero.
+     */
+    private int findChunkAlignedCut(int[] rawTokens, int totalTokens, int rawBudget, int chunkTokens) {
+        long prefix = 0;
+        long previousChunk = 0;
+        for (int i = 0; i < rawTokens.length; i++) {
+            long chunk = prefix / chunkTokens;
+            if (chunk != previousChunk && totalTokens - prefix <= rawBudget) {
+                return i;
+            }
+            previousChunk = chunk;
+            prefix += rawTokens[i];
+        }
+        return 0;
+    }
+
+    @Override
+    public Mono<Void> recordUsage(String channelId, String model, List<OpenRouterMessage> prompt, TokenUsage usage) {
+        if (usage == null || usage.isEmpty()) {
+            logger.debug("Nessun dato di consumo token per canale: {}", channelId);
+            return Mono.empty();
+        }
+
+        tokenEstimator.recordSample(model, tokenEstimator.rawPromptEstimate(prompt), usage.promptTokens());
+
+        return tokenUsageRepository.addUsage(channelId, usage)
+            .doOnError(error -> logger.warn("Errore nell'aggiornamento dei token per canale: {}", channelId, error))
+            .onErrorResume(error -> Mono.empty());
+    }
+
+    @Override
+    public Mono<ChannelTokenUsage> getChannelTokenUsage(String channelId) {
+        return tokenUsageRepository.findByChannelId(channelId)
+            .defaultIfEmpty(ChannelTokenUsage.empty(channelId));
     }
 
     @Override
     public Mono<Void> clearChannelHistory(String channelId) {
         logger.info("Cancellazione cronologia per canale: {}", channelId);
         return repository.deleteByChannelId(channelId)
-            .doOnSuccess(v -> logger.info("Cronologia cancellata per canale: {}", channelId));
+            .doOnSuccess(v -> {
+                retrievalIndex.drop(channelId);
+                prefetchBuffer.invalidate(channelId);
+                logger.info("Cronologia cancellata per canale: {}", channelId);
+            });
     }
 
     @Override
@@ -91,6 +326,6 @@ public class ConversationDomainServiceImpl implements ConversationDomainService
 
     @Override
     public int estimateTokens(String text) {
-        return text.length() / AVERAGE_TOKENS_PER_CHAR;
+        return tokenEstimator.rawEstimate(text);
     }
 }
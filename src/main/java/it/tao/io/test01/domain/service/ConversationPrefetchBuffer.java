@@ -0,0 +1,235 @@
+package it.tao.io.test01.domain.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.tao.io.test01.config.PrefetchProperties;
+import it.tao.io.test01.domain.model.ConversationKey;
+import it.tao.io.test01.domain.model.ConversationMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Buffer delle cronologie caricate in anticipo, a vita breve e limitato in numero.
+ * Ogni voce è consumata una sola volta dalla richiesta successiva del canale; i messaggi salvati
+ * dopo l'avvio del caricamento vengono accodati, così la cronologia restituita resta completa.
+ * Le voci scadute o scartate senza essere usate sono contate come spreco.
+ */
+@Component
+public class ConversationPrefetchBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversationPrefetchBuffer.class);
+
+    private final PrefetchProperties properties;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Long> activeChannels;
+    private final Counter started;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter wasted;
+
+    public ConversationPrefetchBuffer(PrefetchProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        int activeLimit = properties.getActiveChannels();
+        this.activeChannels = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > activeLimit;
+            }
+        };
+        this.started = counter(meterRegistry, "started");
+        this.hits = counter(meterRegistry, "hit");
+        this.misses = counter(meterRegistry, "miss");
+        this.wasted = counter(meterRegistry, "wasted");
+        Gauge.builder("chatbot.prefetch.entries", this, ConversationPrefetchBuffer::size)
+                .description("Cronologie caricate in anticipo in attesa di essere usate")
+                .register(meterRegistry);
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("chatbot.prefetch")
+                .description("Caricamenti anticipati della cronologia per esito")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Avvia il caricamento se il bot è attivo nel canale e non c'è già una cronologia valida in attesa
+     */
+    public boolean prefetch(ConversationKey conversation, Supplier<Mono<List<ConversationMessage>>> loader) {
+        if (!properties.isEnabled()) {
+            return false;
+        }
+        String key = conversation.indexKey();
+        long now = System.nanoTime();
+        Entry entry;
+        synchronized (this) {
+            Long lastActive = activeChannels.get(conversation.channelId());
+            if (lastActive == null || now - lastActive > properties.getActiveWindow().toNanos()) {
+                return false;
+            }
+            Entry existing = entries.get(key);
+            if (existing != null && !existing.isExpired(now)) {
+                return false;
+            }
+            if (existing != null) {
+                entries.remove(key);
+                wasted.increment();
+            }
+            // Il loader assembla solo la query: l'accesso a MongoDB parte con la sottoscrizione qui sotto
+            entry = new Entry(now, loader.get().cache());
+            entries.put(key, entry);
+            evictOverflow();
+        }
+
+        started.increment();
+        entry.history.subscribe(
+                history -> logger.debug("Cronologia caricata in anticipo per conversazione {}: {} messaggi", key, history.size()),
+                error -> {
+                    logger.debug("Prefetch della cronologia non riuscito per conversazione {}: {}", key, error.getMessage());
+                    synchronized (this) {
+                        entries.remove(key, entry);
+                    }
+                });
+        return true;
+    }
+
+    /**
+     * Cronologia caricata in anticipo per la conversazione, consumata; vuota se assente o scaduta
+     */
+    public Optional<Mono<List<ConversationMessage>>> take(ConversationKey conversation) {
+        if (!properties.isEnabled()) {
+            return Optional.empty();
+        }
+        Entry entry;
+        synchronized (this) {
+            entry = entries.remove(conversation.indexKey());
+        }
+        if (entry == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            wasted.increment();
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        return Optional.of(entry.history.map(entry::withAppended));
+    }
+
+    /**
+     * Registra un messaggio appena salvato: aggiorna la cronologia in attesa e, per le risposte del bot, l'attività del canale
+     */
+    public void onSaved(ConversationMessage message) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            if ("assistant".equals(message.getRole())) {
+                activeChannels.put(message.getChannelId(), System.nanoTime());
+            }
+            Entry entry = entries.get(ConversationKey.of(message).indexKey());
+            if (entry != null) {
+                entry.appended.add(message);
+            }
+        }
+    }
+
+    /**
+     * Scarta le cronologie in attesa per il canale e le sue sotto-conversazioni (es. dopo la cancellazione)
+     */
+    public synchronized void invalidate(String channelId) {
+        entries.keySet().removeIf(key -> ConversationKey.belongsTo(key, channelId));
+    }
+
+    @Scheduled(fixedDelayString = "${chatbot.prefetch.eviction-interval:10000}")
+    public void evictExpired() {
+        long now = System.nanoTime();
+        int removed = 0;
+        synchronized (this) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().isExpired(now)) {
+                    iterator.remove();
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            wasted.increment(removed);
+            logger.debug("Prefetch: {} cronologie scadute senza essere usate", removed);
+        }
+    }
+
+    private synchronized int size() {
+        return entries.size();
+    }
+
+    private void evictOverflow() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > properties.getMaxEntries() && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            wasted.increment();
+        }
+    }
+
+    private final class Entry {
+
+        private final long createdAt;
+        private final Mono<List<ConversationMessage>> history;
+        private final List<ConversationMessage> appended = new ArrayList<>();
+
+        Entry(long createdAt, Mono<List<ConversationMessage>> history) {
+            this.createdAt = createdAt;
+            this.history = history;
+        }
+
+        boolean isExpired(long now) {
+            return now - createdAt > properties.getTtl().toNanos();
+        }
+
+        /**
+         * Cronologia caricata più i messaggi salvati nel frattempo; chi è già nel risultato della query non viene ripetuto
+         */
+        List<ConversationMessage> withAppended(List<ConversationMessage> loaded) {
+            List<ConversationMessage> pending;
+            synchronized (ConversationPrefetchBuffer.this) {
+                if (appended.isEmpty()) {
+                    return loaded;
+                }
+                pending = new ArrayList<>(appended);
+            }
+            Set<String> ids = new HashSet<>(loaded.size() * 2);
+            for (ConversationMessage message : loaded) {
+                ids.add(message.getId());
+            }
+            List<ConversationMessage> merged = new ArrayList<>(loaded.size() + pending.size());
+            merged.addAll(loaded);
+            for (ConversationMessage message : pending) {
+                if (!ids.contains(message.getId())) {
+                    merged.add(message);
+                }
+            }
+            return merged;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package it.tao.io.test01.domain.service;
+
+/**
+ * Il messaggio Discord indicato è già presente nella cronologia: l'evento è stato consegnato più volte
+ */
+public class DuplicateMessageException extends RuntimeException {
+
+    private final String sourceMessageId;
+
+    public DuplicateMessageException(String sourceMessageId, Throwable cause) {
+        super("Messaggio Discord già elaborato: " + sourceMessageId, cause);
+        this.sourceMessageId = sourceMessageId;
+    }
+
+    public String getSourceMessageId() {
+        return sourceMessageId;
+    }
+}
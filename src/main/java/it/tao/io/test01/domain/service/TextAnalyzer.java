@@ -0,0 +1,52 @@
+package it.tao.io.test01.domain.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Analizzatore lessicale minimale per l'indice di recupero: minuscole, separazione su caratteri
+ * non alfanumerici, rimozione delle parole vuote italiane e inglesi più frequenti
+ */
+@Component
+public class TextAnalyzer {
+
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 40;
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "il", "lo", "la", "le", "gli", "un", "una", "uno", "di", "da", "in", "con", "su", "per", "tra", "fra",
+            "e", "ed", "o", "ma", "se", "che", "chi", "non", "mi", "ti", "si", "ci", "vi", "ne", "del", "della",
+            "dei", "delle", "al", "alla", "ai", "alle", "nel", "nella", "sono", "sei", "è", "ho", "hai", "ha",
+            "come", "cosa", "anche", "più", "questo", "questa", "quello", "quella",
+            "the", "a", "an", "and", "or", "but", "if", "of", "to", "on", "for", "with", "is", "are", "was",
+            "be", "it", "this", "that", "you", "i", "me", "my", "we", "what", "how", "do", "does", "can");
+
+    /**
+     * Frequenza dei termini nel testo
+     */
+    public Map<String, Integer> termFrequencies(String text) {
+        Map<String, Integer> terms = new HashMap<>();
+        if (text == null) {
+            return terms;
+        }
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                current.append(Character.toLowerCase(c));
+                continue;
+            }
+            if (current.length() >= MIN_TERM_LENGTH && current.length() <= MAX_TERM_LENGTH) {
+                String term = current.toString();
+                if (!STOP_WORDS.contains(term)) {
+                    terms.merge(term, 1, Integer::sum);
+                }
+            }
+            current.setLength(0);
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,118 @@
+package it.tao.io.test01.domain.service;
+
+import it.tao.io.test01.infrastructure.client.dto.OpenRouterMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stimatore di token calibrato per modello.
+ * La stima grezza (caratteri / 4 più un overhead fisso per messaggio) viene corretta con un rapporto
+ * mobile tra i prompt_tokens effettivi riportati dal provider e la stima grezza della stessa richiesta.
+ */
+@Component
+public class TokenEstimator {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenEstimator.class);
+
+    private static final int CHARS_PER_TOKEN = 4;
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+    private static final double SMOOTHING = 0.2;
+    private static final double MIN_RATIO = 0.25;
+    private static final double MAX_RATIO = 4.0;
+
+    private final Map<String, Calibration> calibrations = new ConcurrentHashMap<>();
+
+    /**
+     * Stima grezza, non calibrata, dei token di un testo
+     */
+    public int rawEstimate(String text) {
+        return text == null ? 0 : text.length() / CHARS_PER_TOKEN;
+    }
+
+    /**
+     * Stima grezza di un singolo messaggio del prompt, overhead di formato incluso
+     */
+    public int rawMessageEstimate(OpenRouterMessage message) {
+        return rawEstimate(message.getContent()) + MESSAGE_OVERHEAD_TOKENS;
+    }
+
+    /**
+     * Stima grezza dell'intero prompt
+     */
+    public int rawPromptEstimate(List<OpenRouterMessage> messages) {
+        int total = 0;
+        for (OpenRouterMessage message : messages) {
+            total += rawMessageEstimate(message);
+        }
+        return total;
+    }
+
+    /**
+     * Stima calibrata dei token di un testo per il modello indicato
+     */
+    public int estimate(String model, String text) {
+        return calibrate(model, rawEstimate(text));
+    }
+
+    /**
+     * Applica il rapporto di calibrazione del modello a una stima grezza
+     */
+    public int calibrate(String model, int rawTokens) {
+        return (int) Math.ceil(rawTokens * ratio(model));
+    }
+
+    /**
+     * Rapporto corrente effettivi/stimati per il modello (1.0 finché non ci sono campioni)
+     */
+    public double ratio(String model) {
+        Calibration calibration = model != null ? calibrations.get(model) : null;
+        return calibration != null ? calibration.ratio() : 1.0;
+    }
+
+    /**
+     * Aggiorna la calibrazione con il consumo effettivo di una richiesta
+     */
+    public void recordSample(String model, int rawPromptTokens, int actualPromptTokens) {
+        if (model == null || rawPromptTokens <= 0 || actualPromptTokens <= 0) {
+            return;
+        }
+        double sample = Math.max(MIN_RATIO, Math.min(MAX_RATIO, (double) actualPromptTokens / rawPromptTokens));
+        Calibration calibration = calibrations.computeIfAbsent(model, m -> new Calibration());
+        double updated = calibration.update(sample);
+
+        logger.debug("Calibrazione token per modello {}: stimati={}, effettivi={}, rapporto={}",
+                model, rawPromptTokens, actualPromptTokens, String.format("%.3f", updated));
+    }
+
+    /**
+     * Snapshot dei rapporti correnti per modello
+     */
+    public Map<String, Double> ratios() {
+        Map<String, Double> snapshot = new ConcurrentHashMap<>();
+        calibrations.forEach((model, calibration) -> snapshot.put(model, calibration.ratio()));
+        return snapshot;
+    }
+
+    /**
+     * Media mobile esponenziale del rapporto effettivi/stimati
+     */
+    private static final class Calibration {
+        private double ratio = 1.0;
+        private long samples;
+
+        synchronized double update(double sample) {
+            ratio = samples == 0 ? sample : ratio + SMOOTHING * (sample - ratio);
+            samples++;
+            return ratio;
+        }
+
+        synchronized double ratio() {
+            return ratio;
+        }
+    }
+}
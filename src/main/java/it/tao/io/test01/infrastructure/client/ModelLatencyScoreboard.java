@@ -0,0 +1,114 @@
+package it.tao.io.test01.infrastructure.client;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tabellone delle prestazioni osservate per modello sulle ultime chiamate (finestra mobile):
+ * latenza p95, tasso di errore e millisecondi per token generato
+ */
+@Component
+public class ModelLatencyScoreboard {
+
+    private static final int WINDOW = 256;
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Samples> models = new ConcurrentHashMap<>();
+
+    public ModelLatencyScoreboard(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Registra l'esito di una chiamata; completionTokens è 0 per le chiamate fallite
+     */
+    public void record(String model, long latencyNanos, int completionTokens, boolean success) {
+        samples(model).add(latencyNanos, completionTokens, success);
+    }
+
+    public Snapshot snapshot(String model) {
+        Samples samples = models.get(model);
+        return samples != null ? samples.snapshot() : Snapshot.EMPTY;
+    }
+
+    public Map<String, Snapshot> snapshots() {
+        Map<String, Snapshot> result = new TreeMap<>();
+        models.forEach((model, samples) -> result.put(model, samples.snapshot()));
+        return result;
+    }
+
+    private Samples samples(String model) {
+        return models.computeIfAbsent(model, m -> {
+            Samples samples = new Samples();
+            Gauge.builder("openrouter.model.latency.p95", samples, s -> s.snapshot().p95().toMillis())
+                    .description("Latenza p95 delle ultime chiamate al modello")
+                    .baseUnit("milliseconds")
+                    .tag("model", m)
+                    .register(meterRegistry);
+            Gauge.builder("openrouter.model.error.rate", samples, s -> s.snapshot().errorRate())
+                    .description("Frazione di chiamate fallite tra le ultime verso il modello")
+                    .tag("model", m)
+                    .register(meterRegistry);
+            return samples;
+        });
+    }
+
+    /**
+     * Prestazioni di un modello: samples è 0 finché non ci sono osservazioni
+     */
+    public record Snapshot(int samples, Duration p95, double errorRate, double millisPerToken) {
+
+        static final Snapshot EMPTY = new Snapshot(0, Duration.ZERO, 0.0, 0.0);
+    }
+
+    /**
+     * Buffer circolare degli ultimi WINDOW campioni
+     */
+    private static final class Samples {
+
+        private final long[] latencies = new long[WINDOW];
+        private final int[] tokens = new int[WINDOW];
+        private final boolean[] failures = new boolean[WINDOW];
+        private int next;
+        private int size;
+
+        synchronized void add(long latencyNanos, int completionTokens, boolean success) {
+            latencies[next] = latencyNanos;
+            tokens[next] = completionTokens;
+            failures[next] = !success;
+            next = (next + 1) % WINDOW;
+            size = Math.min(size + 1, WINDOW);
+        }
+
+        synchronized Snapshot snapshot() {
+            if (size == 0) {
+                return Snapshot.EMPTY;
+            }
+            long[] sorted = Arrays.copyOf(latencies, size);
+            Arrays.sort(sorted);
+            long p95 = sorted[Math.min(size - 1, (int) Math.ceil(size * 0.95) - 1)];
+
+            int failed = 0;
+            long successLatency = 0;
+            long generated = 0;
+            for (int i = 0; i < size; i++) {
+                if (failures[i]) {
+                    failed++;
+                } else {
+                    successLatency += latencies[i];
+                    generated += tokens[i];
+                }
+            }
+            // Stima prudente: l'intera latenza (prompt incluso) è attribuita ai token generati
+            double millisPerToken = generated > 0 ? successLatency / 1_000_000.0 / generated : 0.0;
+            return new Snapshot(size, Duration.ofNanos(p95), (double) failed / size, millisPerToken);
+        }
+    }
+}
@@ -1,20 +1,42 @@
 package it.tao.io.test01.infrastructure.client;
 
+import it.tao.io.test01.config.LoggingContextConfiguration;
+import it.tao.io.test01.config.ModelRoutingProperties;
+import it.tao.io.test01.config.PrefetchProperties;
+import it.tao.io.test01.domain.model.TokenUsage;
+import it.tao.io.test01.infrastructure.client.dto.ChatCompletion;
+import it.tao.io.test01.infrastructure.client.dto.ModelSelection;
 import it.tao.io.test01.infrastructure.client.dto.OpenRouterMessage;
 import it.tao.io.test01.infrastructure.client.dto.OpenRouterRequest;
-import it.tao.io.test01.infrastructure.client.dto.OpenRouterResponse;
+import it.tao.io.test01.infrastructure.deadline.RequestDeadline;
+import it.tao.io.test01.infrastructure.profiling.OpenRouterCallEvent;
+import it.tao.io.test01.infrastructure.profiling.PipelineEvents;
+import it.tao.io.test01.infrastructure.settings.PerformanceSettings;
+import it.tao.io.test01.infrastructure.settings.RuntimeSettings;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientRequestException;
 import reactor.core.publisher.Mono;
 import reactor.util.retry.Retry;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Client per l'integrazione con il servizio OpenRouter AI
@@ -25,19 +47,63 @@ public class OpenRouterClient {
     private static final Logger logger = LoggerFactory.getLogger(OpenRouterClient.class);
 
     private final WebClient webClient;
+    private final MeterRegistry meterRegistry;
+    private final OpenRouterRequestWriter requestWriter;
+    private final OpenRouterResponseReader responseReader;
+    private final ModelLatencyScoreboard scoreboard;
+    private final RuntimeSettings runtimeSettings;
+    private final PrefetchProperties prefetchProperties;
+    private final ModelRoutingProperties routingProperties;
+    private final DistributionSummary requestBytes;
+    private final Counter skippedRetries;
+    private final AtomicLong lastWarmUp = new AtomicLong(System.nanoTime() - TimeUnit.DAYS.toNanos(1));
 
     @Value("${openrouter.model.name}")
     private String modelName;
 
-    @Value("${openrouter.retry.max-attempts:3}")
-    private int maxRetryAttempts;
+    // Prefissi dei modelli che supportano i cache_control espliciti (es. anthropic/, google/gemini)
+    @Value("${openrouter.cache-control.model-prefixes:}")
+    private List<String> cacheControlModelPrefixes = List.of();
 
-    @Value("${openrouter.retry.base-delay:1000}")
-    private long baseDelayMs;
+    public OpenRouterClient(WebClient.Builder webClientBuilder,
+                            MeterRegistry meterRegistry,
+                            OpenRouterRequestWriter requestWriter,
+                            OpenRouterResponseReader responseReader,
+                            ModelLatencyScoreboard scoreboard,
+                            RuntimeSettings runtimeSettings,
+                            PrefetchProperties prefetchProperties,
+                            ModelRoutingProperties routingProperties,
+                            @Value("${openrouter.api.key}") String apiKey,
+                            @Value("${openrouter.api.base-url:https://openrouter.ai/api/v1}") String baseUrl) {
+        this.meterRegistry = meterRegistry;
+        this.requestWriter = requestWriter;
+        this.responseReader = responseReader;
+        this.scoreboard = scoreboard;
+        this.runtimeSettings = runtimeSettings;
+        this.prefetchProperties = prefetchProperties;
+        this.routingProperties = routingProperties;
+        this.requestBytes = DistributionSummary.builder("openrouter.request.bytes")
+                .description("Dimensione del corpo delle richieste inviate a OpenRouter")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.skippedRetries = Counter.builder("openrouter.retries.skipped")
+                .description("Retry non eseguiti perché il budget residuo della richiesta non li copriva")
+                .register(meterRegistry);
+        FunctionCounter.builder("openrouter.serialization.fragments", requestWriter, OpenRouterRequestWriter::fragmentHits)
+                .description("Frammenti JSON dei messaggi riusati dalla cache")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("openrouter.serialization.fragments", requestWriter, OpenRouterRequestWriter::fragmentMisses)
+                .description("Frammenti JSON dei messaggi serializzati ex novo")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        Gauge.builder("openrouter.serialization.cache.bytes", requestWriter, OpenRouterRequestWriter::cachedBytes)
+                .description("Byte occupati dalla cache dei frammenti JSON")
+                .baseUnit("bytes")
+                .register(meterRegistry);
 
-    public OpenRouterClient(WebClient.Builder webClientBuilder, @Value("${openrouter.api.key}") String apiKey) {
         this.webClient = webClientBuilder
-                .baseUrl("https://openrouter.ai/api/v1")
+                .baseUrl(baseUrl)
                 .defaultHeader("Authorization", "Bearer " + apiKey)
                 .defaultHeader("HTTP-Referer", "https://localhost:8080")
                 .defaultHeader("X-Title", "TAO Discord Bot")
@@ -50,31 +116,143 @@ public class OpenRouterClient {
      * Invia una richiesta di chat completion a OpenRouter
      */
     public Mono<String> getChatCompletion(List<OpenRouterMessage> messages) {
-        logger.debug("Invio richiesta a OpenRouter con {} messaggi", messages.size());
+        return getChatCompletionWithUsage(messages).map(ChatCompletion::content);
+    }
+
+    /**
+     * Invia una richiesta di chat completion a OpenRouter restituendo anche il consumo di token riportato.
+     * Usa modello e parametri predefiniti dell'instradamento, entro il tetto di output impostato a runtime.
+     */
+    public Mono<ChatCompletion> getChatCompletionWithUsage(List<OpenRouterMessage> messages) {
+        return Mono.deferContextual(context -> {
+            int maxTokens = routingProperties.getDefaultMaxTokens();
+            int maxOutputTokens = runtimeSettings.from(context).maxOutputTokens();
+            if (maxOutputTokens > 0) {
+                maxTokens = Math.min(maxTokens, maxOutputTokens);
+            }
+            return getChatCompletionWithUsage(messages, new ModelSelection(modelName, maxTokens,
+                    routingProperties.getDefaultTemperature(), "default"));
+        });
+    }
 
+    /**
+     * Invia una richiesta di chat completion con modello e parametri scelti per la richiesta
+     */
+    public Mono<ChatCompletion> getChatCompletionWithUsage(List<OpenRouterMessage> messages, ModelSelection selection) {
+        logger.debug("Invio richiesta a OpenRouter con {} messaggi (modello: {}, max_tokens: {})",
+                    messages.size(), selection.model(), selection.maxTokens());
+
+        String model = selection.model();
         OpenRouterRequest requestBody = new OpenRouterRequest(
-                modelName,
-                messages,
-                0.7,
-                4000,
+                model,
+                withCacheBreakpoint(messages, model),
+                selection.temperature(),
+                selection.maxTokens(),
                 false
         );
 
-        return webClient.post()
+        // Il corpo è composto da frammenti JSON già codificati: solo i messaggi nuovi vengono serializzati
+        OpenRouterRequestWriter.EncodedBody body = requestWriter.encode(requestBody);
+        requestBytes.record(body.contentLength());
+
+        Mono<ChatCompletion> call = Mono.deferContextual(context -> webClient.post()
                 .uri("/chat/completions")
                 .contentType(MediaType.APPLICATION_JSON)
-                .bodyValue(requestBody)
+                .contentLength(body.contentLength())
+                .body(BodyInserters.fromDataBuffers(body.toDataBuffers()))
                 .retrieve()
-                .bodyToMono(OpenRouterResponse.class)
-                .retryWhen(Retry.backoff(maxRetryAttempts, Duration.ofMillis(baseDelayMs))
-                        .filter(this::isRetryableException)
-                        .doBeforeRetry(retrySignal ->
-                            logger.warn("Tentativo {} per OpenRouter", retrySignal.totalRetries() + 1)))
-                .map(this::extractContentFromResponse)
-                .doOnSuccess(response ->
-                    logger.debug("Risposta ricevuta da OpenRouter: {} caratteri", response.length()))
+                .bodyToFlux(DataBuffer.class)
+                .as(responseReader::read)
+                .retryWhen(retrySpec(RequestDeadline.from(context).orElse(null), runtimeSettings.from(context))))
+                .map(response -> toChatCompletion(response, selection))
+                .doOnNext(completion -> recordTokenMetrics(completion.model(), completion.usage()))
+                .doOnSuccess(completion ->
+                    logger.debug("Risposta ricevuta da OpenRouter: {} caratteri, token: {}",
+                                completion.content().length(), completion.usage()))
                 .doOnError(error ->
                     logger.error("Errore nella chiamata a OpenRouter", error));
+
+        // Chiamata e retry condividono il tempo residuo della richiesta
+        Mono<ChatCompletion> timed = Mono.defer(() -> {
+            long start = System.nanoTime();
+            return RequestDeadline.within("openrouter", call)
+                    // Le prestazioni osservate alimentano il tabellone usato per l'instradamento
+                    .doOnNext(completion -> scoreboard.record(model, System.nanoTime() - start,
+                            completion.usage().completionTokens(), true))
+                    .doOnError(error -> scoreboard.record(model, System.nanoTime() - start, 0, false));
+        });
+        return PipelineEvents.isActive() ? withCallEvent(timed, selection, messages.size(), body.contentLength()) : timed;
+    }
+
+    /**
+     * Evento JFR della chiamata, con dimensione del corpo e consumo di token riportato
+     */
+    private Mono<ChatCompletion> withCallEvent(Mono<ChatCompletion> call, ModelSelection selection,
+                                               int messageCount, long requestBytes) {
+        return Mono.deferContextual(context -> {
+            OpenRouterCallEvent event = new OpenRouterCallEvent();
+            if (!event.isEnabled()) {
+                return call;
+            }
+            String channelId = context.getOrDefault(LoggingContextConfiguration.CHANNEL_ID, null);
+            event.describe(PipelineEvents.channelHash(channelId), selection.model(), selection.route(),
+                    messageCount, requestBytes, selection.maxTokens());
+            event.begin();
+            return call
+                .doOnNext(completion -> event.usage(completion.usage().promptTokens(), completion.usage().completionTokens()))
+                .doOnError(error -> event.outcome(error.getClass().getSimpleName()))
+                .doOnCancel(() -> event.outcome("cancelled"))
+                .doFinally(signal -> event.complete());
+        });
+    }
+
+    /**
+     * Apre (o mantiene viva) una connessione del pool verso OpenRouter con una richiesta leggera,
+     * così handshake TCP e TLS non pesano sulla prossima chat completion. Al più una volta per intervallo.
+     */
+    public void warmUpConnection() {
+        long interval = prefetchProperties.getConnectionWarmInterval().toNanos();
+        long now = System.nanoTime();
+        long last = lastWarmUp.get();
+        if (interval <= 0 || now - last < interval || !lastWarmUp.compareAndSet(last, now)) {
+            return;
+        }
+        webClient.head()
+                .uri("/models")
+                .exchangeToMono(ClientResponse::releaseBody)
+                .timeout(Duration.ofSeconds(5))
+                .subscribe(done -> { },
+                           error -> logger.debug("Riscaldamento connessione OpenRouter non riuscito: {}", error.getMessage()),
+                           () -> logger.debug("Connessione OpenRouter riscaldata"));
+    }
+
+    private Retry retrySpec(RequestDeadline deadline, PerformanceSettings settings) {
+        AtomicInteger retries = new AtomicInteger();
+        Duration baseDelay = settings.retryBaseDelay();
+        return Retry.backoff(settings.retryMaxAttempts(), baseDelay)
+                .filter(error -> isRetryableException(error)
+                        && fitsDeadline(deadline, baseDelay, settings.deadlines().minAttempt(), retries.get()))
+                .doBeforeRetry(retrySignal -> {
+                    retries.incrementAndGet();
+                    logger.warn("Tentativo {} per OpenRouter", retrySignal.totalRetries() + 1);
+                });
+    }
+
+    /**
+     * Un retry è utile solo se, dopo il backoff, resta almeno il tempo minimo per un tentativo completo
+     */
+    private boolean fitsDeadline(RequestDeadline deadline, Duration baseDelay, Duration minAttempt, int retries) {
+        if (deadline == null) {
+            return true;
+        }
+        // Backoff esponenziale con jitter fino al 50%: attesa massima prima del prossimo tentativo
+        long maxBackoffMs = (long) (baseDelay.toMillis() * Math.pow(2, retries) * 1.5);
+        if (deadline.canCover(Duration.ofMillis(maxBackoffMs).plus(minAttempt))) {
+            return true;
+        }
+        skippedRetries.increment();
+        logger.warn("Retry OpenRouter saltato: budget residuo di {} ms insufficiente", deadline.remaining().toMillis());
+        return false;
     }
 
     private boolean isRetryableException(Throwable throwable) {
@@ -86,21 +264,74 @@ public class OpenRouterClient {
                 throwable.getMessage().contains("connection"));
     }
 
-    private String extractContentFromResponse(OpenRouterResponse response) {
-        try {
-            if (response.getChoices() != null && !response.getChoices().isEmpty()) {
-                OpenRouterResponse.Choice firstChoice = response.getChoices().get(0);
-                if (firstChoice.getMessage() != null) {
-                    return firstChoice.getMessage().getContent();
-                }
+    /**
+     * Nome del modello configurato
+     */
+    public String getModelName() {
+        return modelName;
+    }
+
+    /**
+     * Per i modelli con prompt caching esplicito marca come punto di cache l'ultimo messaggio
+     * prima del turno corrente: il prefisso della conversazione, stabile tra i turni, viene così
+     * memorizzato dal provider e riletto dalla cache alla richiesta successiva.
+     */
+    private List<OpenRouterMessage> withCacheBreakpoint(List<OpenRouterMessage> messages, String model) {
+        if (messages.size() < 2 || !supportsCacheControl(model)) {
+            return messages;
+        }
+        List<OpenRouterMessage> marked = new ArrayList<>(messages);
+        int breakpoint = marked.size() - 2;
+        marked.set(breakpoint, marked.get(breakpoint).asCacheBreakpoint());
+        return marked;
+    }
+
+    private boolean supportsCacheControl(String model) {
+        if (model == null) {
+            return false;
+        }
+        for (String prefix : cacheControlModelPrefixes) {
+            if (!prefix.isBlank() && model.startsWith(prefix.trim())) {
+                return true;
             }
+        }
+        return false;
+    }
 
-            logger.warn("Formato risposta OpenRouter non valido: {}", response);
-            return "Risposta non valida dal servizio AI.";
+    private void recordTokenMetrics(String model, TokenUsage usage) {
+        if (usage.isEmpty()) {
+            return;
+        }
+        tokenCounter(model, "prompt").increment(usage.promptTokens());
+        tokenCounter(model, "completion").increment(usage.completionTokens());
+        tokenCounter(model, "cached").increment(usage.cachedPromptTokens());
+    }
+
+    private Counter tokenCounter(String model, String type) {
+        return Counter.builder("openrouter.tokens")
+                .description("Token consumati riportati da OpenRouter")
+                .tag("model", model != null ? model : "unknown")
+                .tag("type", type)
+                .register(meterRegistry);
+    }
 
-        } catch (Exception e) {
-            logger.error("Errore nel parsing della risposta OpenRouter", e);
-            return "Errore nell'elaborazione della risposta AI.";
+    private ChatCompletion toChatCompletion(OpenRouterResponseReader.ParsedCompletion response, ModelSelection selection) {
+        String content = response.content();
+        if (content == null) {
+            logger.warn("Formato risposta OpenRouter non valido: finish_reason={}, errore={}",
+                       response.finishReason(), response.errorMessage());
+            content = "Risposta non valida dal servizio AI.";
+        } else if ("length".equals(response.finishReason())) {
+            // Risposta troncata da max_tokens: se frequente per una regola, il suo budget è troppo basso
+            logger.warn("Risposta troncata a {} token (modello: {}, regola: {})",
+                       selection.maxTokens(), selection.model(), selection.route());
+            Counter.builder("openrouter.completions.truncated")
+                    .description("Risposte interrotte dal limite max_tokens")
+                    .tag("model", selection.model() != null ? selection.model() : "unknown")
+                    .tag("route", selection.route() != null ? selection.route() : "unknown")
+                    .register(meterRegistry)
+                    .increment();
         }
+        return new ChatCompletion(content, selection.model(), response.usage());
     }
 }
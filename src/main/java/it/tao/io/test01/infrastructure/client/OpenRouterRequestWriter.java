@@ -0,0 +1,216 @@
+package it.tao.io.test01.infrastructure.client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBufAllocator;
+import it.tao.io.test01.infrastructure.client.dto.OpenRouterMessage;
+import it.tao.io.test01.infrastructure.client.dto.OpenRouterRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.codec.EncodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serializzatore incrementale del corpo delle richieste di chat completion.
+ * Ogni messaggio della cronologia viene codificato in JSON una sola volta e conservato come frammento
+ * di byte in una cache LRU limitata in dimensione; il corpo della richiesta è composto affiancando
+ * i frammenti in buffer Netty che li avvolgono senza copiarli.
+ */
+@Component
+public class OpenRouterRequestWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(OpenRouterRequestWriter.class);
+
+    private static final byte[] MESSAGES_OPEN = "\"messages\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = ",".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CLOSE = "]}".getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper objectMapper;
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(ByteBufAllocator.DEFAULT);
+    private final FragmentCache fragmentCache;
+
+    private final AtomicLong fragmentHits = new AtomicLong();
+    private final AtomicLong fragmentMisses = new AtomicLong();
+
+    public OpenRouterRequestWriter(ObjectMapper objectMapper,
+                                   @Value("${openrouter.serialization.fragment-cache-bytes:33554432}") long fragmentCacheBytes) {
+        this.objectMapper = objectMapper;
+        this.fragmentCache = new FragmentCache(fragmentCacheBytes);
+    }
+
+    /**
+     * Codifica la richiesta in una sequenza di frammenti JSON pronti per l'invio
+     */
+    public EncodedBody encode(OpenRouterRequest request) {
+        List<OpenRouterMessage> messages = request.getMessages();
+        List<byte[]> chunks = new ArrayList<>(messages.size() * 2 + 2);
+
+        chunks.add(header(request));
+        chunks.add(MESSAGES_OPEN);
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                chunks.add(SEPARATOR);
+            }
+            chunks.add(fragment(messages.get(i)));
+        }
+        chunks.add(CLOSE);
+
+        long contentLength = 0;
+        for (byte[] chunk : chunks) {
+            contentLength += chunk.length;
+        }
+        return new EncodedBody(chunks, contentLength);
+    }
+
+    public long fragmentHits() {
+        return fragmentHits.get();
+    }
+
+    public long fragmentMisses() {
+        return fragmentMisses.get();
+    }
+
+    public long cachedBytes() {
+        return fragmentCache.weight();
+    }
+
+    private byte[] header(OpenRouterRequest request) {
+        // Campi scalari prima dell'array dei messaggi: {"model":...,"temperature":...,"max_tokens":...,"stream":...,
+        StringBuilder sb = new StringBuilder(96);
+        sb.append("{\"model\":").append(writeString(request.getModel()))
+          .append(",\"temperature\":").append(request.getTemperature())
+          .append(",\"max_tokens\":").append(request.getMaxTokens())
+          .append(",\"stream\":").append(request.isStream())
+          .append(',');
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String writeString(String value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new EncodingException("Impossibile serializzare il campo della richiesta", e);
+        }
+    }
+
+    private byte[] fragment(OpenRouterMessage message) {
+        FragmentKey key = FragmentKey.of(message);
+        if (key == null) {
+            fragmentMisses.incrementAndGet();
+            return serialize(message);
+        }
+
+        byte[] cached = fragmentCache.get(key);
+        if (cached != null) {
+            fragmentHits.incrementAndGet();
+            return cached;
+        }
+
+        fragmentMisses.incrementAndGet();
+        byte[] encoded = serialize(message);
+        fragmentCache.put(key, encoded);
+        return encoded;
+    }
+
+    private byte[] serialize(OpenRouterMessage message) {
+        try {
+            return objectMapper.writeValueAsBytes(message);
+        } catch (JsonProcessingException e) {
+            throw new EncodingException("Impossibile serializzare il messaggio per OpenRouter", e);
+        }
+    }
+
+    /**
+     * Corpo codificato: frammenti da inviare in sequenza e lunghezza totale in byte
+     */
+    public final class EncodedBody {
+
+        private final List<byte[]> chunks;
+        private final long contentLength;
+
+        private EncodedBody(List<byte[]> chunks, long contentLength) {
+            this.chunks = chunks;
+            this.contentLength = contentLength;
+        }
+
+        public long contentLength() {
+            return contentLength;
+        }
+
+        public int chunkCount() {
+            return chunks.size();
+        }
+
+        /**
+         * Flusso di buffer che avvolgono i frammenti senza copia.
+         * I wrapper sono creati a ogni sottoscrizione perché Netty li rilascia dopo la scrittura (retry inclusi).
+         */
+        public Flux<DataBuffer> toDataBuffers() {
+            return Flux.defer(() -> Flux.fromIterable(chunks).<DataBuffer>map(bufferFactory::wrap));
+        }
+    }
+
+    /**
+     * Chiave di un frammento: l'ID del messaggio persistito identifica un contenuto immutabile
+     */
+    private record FragmentKey(String sourceId, String role, boolean cacheBreakpoint) {
+
+        static FragmentKey of(OpenRouterMessage message) {
+            if (message.getSourceId() == null) {
+                return null;
+            }
+            return new FragmentKey(message.getSourceId(), message.getRole(), message.isCacheBreakpoint());
+        }
+    }
+
+    /**
+     * Cache LRU dei frammenti limitata dal totale dei byte conservati
+     */
+    private static final class FragmentCache {
+
+        private final long maxBytes;
+        private final LinkedHashMap<FragmentKey, byte[]> entries = new LinkedHashMap<>(1024, 0.75f, true);
+        private long weight;
+
+        FragmentCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized byte[] get(FragmentKey key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(FragmentKey key, byte[] value) {
+            if (value.length > maxBytes) {
+                return;
+            }
+            byte[] previous = entries.put(key, value);
+            weight += value.length - (previous != null ? previous.length : 0);
+
+            var iterator = entries.entrySet().iterator();
+            while (weight > maxBytes && iterator.hasNext()) {
+                Map.Entry<FragmentKey, byte[]> eldest = iterator.next();
+                weight -= eldest.getValue().length;
+                iterator.remove();
+            }
+            if (logger.isTraceEnabled()) {
+                logger.trace("Cache frammenti: {} voci, {} byte", entries.size(), weight);
+            }
+        }
+
+        synchronized long weight() {
+            return weight;
+        }
+    }
+}
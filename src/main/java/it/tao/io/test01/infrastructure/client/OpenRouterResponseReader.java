@@ -0,0 +1,177 @@
+package it.tao.io.test01.infrastructure.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.tao.io.test01.domain.model.TokenUsage;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Decodifica in streaming delle risposte di chat completion.
+ * I buffer ricevuti da Netty alimentano direttamente un parser JSON non bloccante che estrae
+ * solo i campi necessari (contenuto della prima scelta, finish_reason, usage), senza aggregare
+ * il corpo né costruire l'albero di OpenRouterResponse.
+ */
+@Component
+public class OpenRouterResponseReader {
+
+    private final JsonFactory jsonFactory;
+
+    public OpenRouterResponseReader(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * Legge il corpo della risposta rilasciando ogni buffer appena consumato
+     */
+    public Mono<ParsedCompletion> read(Flux<DataBuffer> body) {
+        return Mono.using(
+                () -> new CompletionParser(jsonFactory.createNonBlockingByteBufferParser()),
+                parser -> body
+                        .doOnNext(buffer -> {
+                            try {
+                                parser.feed(buffer);
+                            } finally {
+                                DataBufferUtils.release(buffer);
+                            }
+                        })
+                        .then(Mono.fromCallable(parser::finish)),
+                CompletionParser::close);
+    }
+
+    /**
+     * Campi estratti dalla risposta
+     */
+    public record ParsedCompletion(String content, String finishReason, String model, TokenUsage usage, String errorMessage) {
+    }
+
+    /**
+     * Macchina a stati sopra il parser non bloccante: tiene traccia del percorso corrente
+     * e memorizza solo i valori scalari di interesse
+     */
+    private static final class CompletionParser {
+
+        private final JsonParser parser;
+        private final ByteBufferFeeder feeder;
+        private final Deque<Frame> frames = new ArrayDeque<>();
+
+        private String content;
+        private String finishReason;
+        private String model;
+        private String errorMessage;
+        private int promptTokens;
+        private int completionTokens;
+        private int totalTokens;
+        private int cachedTokens;
+
+        CompletionParser(JsonParser parser) {
+            this.parser = parser;
+            this.feeder = (ByteBufferFeeder) parser.getNonBlockingInputFeeder();
+        }
+
+        void feed(DataBuffer buffer) {
+            try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+                while (iterator.hasNext()) {
+                    ByteBuffer byteBuffer = iterator.next();
+                    feeder.feedInput(byteBuffer);
+                    drain();
+                }
+            } catch (IOException e) {
+                throw new DecodingException("Risposta OpenRouter non valida", e);
+            }
+        }
+
+        ParsedCompletion finish() throws IOException {
+            feeder.endOfInput();
+            drain();
+            TokenUsage usage = new TokenUsage(promptTokens, completionTokens, totalTokens, cachedTokens);
+            return new ParsedCompletion(content, finishReason, model, usage, errorMessage);
+        }
+
+        void close() {
+            try {
+                parser.close();
+            } catch (IOException ignored) {
+                // nessuna risorsa esterna da liberare
+            }
+        }
+
+        private void drain() throws IOException {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                switch (token) {
+                    case START_OBJECT, START_ARRAY -> {
+                        Frame parent = frames.peek();
+                        if (parent != null) {
+                            parent.advance();
+                        }
+                        frames.push(new Frame(token == JsonToken.START_ARRAY, parent != null ? parent.path() : ""));
+                    }
+                    case END_OBJECT, END_ARRAY -> frames.pop();
+                    case FIELD_NAME -> frames.peek().field = parser.currentName();
+                    default -> onScalar(token);
+                }
+            }
+        }
+
+        private void onScalar(JsonToken token) throws IOException {
+            Frame frame = frames.peek();
+            if (frame == null) {
+                return;
+            }
+            frame.advance();
+            switch (frame.path()) {
+                case "model" -> model = parser.getText();
+                case "choices.0.message.content" -> content = token == JsonToken.VALUE_NULL ? null : parser.getText();
+                case "choices.0.finish_reason" -> finishReason = parser.getText();
+                case "usage.prompt_tokens" -> promptTokens = parser.getIntValue();
+                case "usage.completion_tokens" -> completionTokens = parser.getIntValue();
+                case "usage.total_tokens" -> totalTokens = parser.getIntValue();
+                case "usage.prompt_tokens_details.cached_tokens" -> cachedTokens = parser.getIntValue();
+                case "error.message" -> errorMessage = parser.getText();
+                default -> {
+                    // campo non di interesse
+                }
+            }
+        }
+    }
+
+    /**
+     * Livello di annidamento: campo corrente per gli oggetti, indice corrente per gli array
+     */
+    private static final class Frame {
+
+        private final boolean array;
+        private final String parentPath;
+        private String field;
+        private int index = -1;
+
+        Frame(boolean array, String parentPath) {
+            this.array = array;
+            this.parentPath = parentPath;
+        }
+
+        void advance() {
+            if (array) {
+                index++;
+            }
+        }
+
+        String path() {
+            String segment = array ? Integer.toString(index) : field;
+            return parentPath.isEmpty() ? segment : parentPath + "." + segment;
+        }
+    }
+}
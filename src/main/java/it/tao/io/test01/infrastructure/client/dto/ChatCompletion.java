@@ -0,0 +1,9 @@
+package it.tao.io.test01.infrastructure.client.dto;
+
+import it.tao.io.test01.domain.model.TokenUsage;
+
+/**
+ * Risultato di una chat completion: contenuto della risposta, modello richiesto e consumo di token effettivo
+ */
+public record ChatCompletion(String content, String model, TokenUsage usage) {
+}
@@ -0,0 +1,7 @@
+package it.tao.io.test01.infrastructure.client.dto;
+
+/**
+ * Modello e parametri di generazione scelti per una singola richiesta
+ */
+public record ModelSelection(String model, int maxTokens, double temperature, String route) {
+}
@@ -1,16 +1,22 @@
 package it.tao.io.test01.infrastructure.client.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import lombok.AllArgsConstructor;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.io.IOException;
+
 /**
  * POJO per rappresentare un messaggio nel formato OpenRouter
  */
 @Data
 @NoArgsConstructor
-@AllArgsConstructor
+@JsonSerialize(using = OpenRouterMessage.Serializer.class)
 public class OpenRouterMessage {
 
     @JsonProperty("role")
@@ -18,4 +24,68 @@ public class OpenRouterMessage {
 
     @JsonProperty("content")
     private String content;
+
+    /**
+     * Se true il messaggio chiude il prefisso da memorizzare nella prompt cache del provider
+     * e viene serializzato come parte di testo con cache_control
+     */
+    @JsonIgnore
+    private boolean cacheBreakpoint;
+
+    /**
+     * ID del messaggio persistito da cui deriva, usato come chiave per i frammenti JSON pre-serializzati
+     */
+    @JsonIgnore
+    private String sourceId;
+
+    public OpenRouterMessage(String role, String content) {
+        this.role = role;
+        this.content = content;
+    }
+
+    public OpenRouterMessage(String role, String content, String sourceId) {
+        this.role = role;
+        this.content = content;
+        this.sourceId = sourceId;
+    }
+
+    /**
+     * Copia del messaggio marcata come punto di cache
+     */
+    public OpenRouterMessage asCacheBreakpoint() {
+        OpenRouterMessage copy = new OpenRouterMessage(role, content, sourceId);
+        copy.setCacheBreakpoint(true);
+        return copy;
+    }
+
+    /**
+     * Serializzatore che emette il contenuto come stringa semplice oppure,
+     * per i punti di cache, come array di parti con cache_control "ephemeral"
+     */
+    public static class Serializer extends StdSerializer<OpenRouterMessage> {
+
+        public Serializer() {
+            super(OpenRouterMessage.class);
+        }
+
+        @Override
+        public void serialize(OpenRouterMessage message, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            gen.writeStringField("role", message.getRole());
+            if (message.isCacheBreakpoint()) {
+                gen.writeArrayFieldStart("content");
+                gen.writeStartObject();
+                gen.writeStringField("type", "text");
+                gen.writeStringField("text", message.getContent());
+                gen.writeObjectFieldStart("cache_control");
+                gen.writeStringField("type", "ephemeral");
+                gen.writeEndObject();
+                gen.writeEndObject();
+                gen.writeEndArray();
+            } else {
+                gen.writeStringField("content", message.getContent());
+            }
+            gen.writeEndObject();
+        }
+    }
 }
@@ -64,5 +64,19 @@ public class OpenRouterResponse {
 
         @JsonProperty("total_tokens")
         private int totalTokens;
+
+        @JsonProperty("prompt_tokens_details")
+        private PromptTokensDetails promptTokensDetails;
+    }
+
+    /**
+     * Dettaglio dei token di prompt, inclusi quelli serviti dalla prompt cache
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class PromptTokensDetails {
+        @JsonProperty("cached_tokens")
+        private int cachedTokens;
     }
 }
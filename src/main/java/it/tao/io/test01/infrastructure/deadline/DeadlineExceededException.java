@@ -0,0 +1,20 @@
+package it.tao.io.test01.infrastructure.deadline;
+
+import java.time.Duration;
+
+/**
+ * Il budget di tempo della richiesta è stato esaurito durante lo stadio indicato
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    private final String stage;
+
+    public DeadlineExceededException(String stage, Duration budget) {
+        super("Budget di " + budget.toMillis() + " ms esaurito durante lo stadio " + stage);
+        this.stage = stage;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+}
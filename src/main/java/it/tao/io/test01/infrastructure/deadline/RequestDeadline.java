@@ -0,0 +1,79 @@
+package it.tao.io.test01.infrastructure.deadline;
+
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Scadenza end-to-end di una richiesta, propagata nel Context di Reactor.
+ * Ogni stadio della pipeline consuma il tempo residuo: le operazioni vengono interrotte
+ * con DeadlineExceededException quando il budget si esaurisce.
+ */
+public final class RequestDeadline {
+
+    /** Chiave del Context di Reactor con la scadenza della richiesta */
+    public static final String CONTEXT_KEY = RequestDeadline.class.getName();
+
+    private final Duration budget;
+    private final long expiresAtNanos;
+
+    private RequestDeadline(Duration budget) {
+        this.budget = budget;
+        this.expiresAtNanos = System.nanoTime() + budget.toNanos();
+    }
+
+    /**
+     * Scadenza che inizia a decorrere ora
+     */
+    public static RequestDeadline after(Duration budget) {
+        return new RequestDeadline(budget);
+    }
+
+    public static Optional<RequestDeadline> from(ContextView context) {
+        return context.getOrEmpty(CONTEXT_KEY);
+    }
+
+    /**
+     * Applica allo stadio il tempo residuo della scadenza presente nel Context (nessun limite se assente)
+     */
+    public static <T> Mono<T> within(String stage, Mono<T> operation) {
+        return Mono.deferContextual(context -> from(context)
+                .map(deadline -> deadline.bound(stage, operation))
+                .orElse(operation));
+    }
+
+    public Duration budget() {
+        return budget;
+    }
+
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, expiresAtNanos - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return expiresAtNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * true se il tempo residuo copre l'attesa indicata
+     */
+    public boolean canCover(Duration wait) {
+        return expiresAtNanos - System.nanoTime() > wait.toNanos();
+    }
+
+    /**
+     * Istante di scadenza in millisecondi epoch, per le API che accettano una scadenza assoluta (JDA RestAction)
+     */
+    public long epochMillis() {
+        return System.currentTimeMillis() + remaining().toMillis();
+    }
+
+    private <T> Mono<T> bound(String stage, Mono<T> operation) {
+        if (isExpired()) {
+            return Mono.error(new DeadlineExceededException(stage, budget));
+        }
+        return operation.timeout(remaining(), Mono.error(() -> new DeadlineExceededException(stage, budget)));
+    }
+}
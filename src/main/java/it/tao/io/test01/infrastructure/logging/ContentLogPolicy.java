@@ -0,0 +1,55 @@
+package it.tao.io.test01.infrastructure.logging;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Politica di logging del contenuto dei messaggi degli utenti.
+ * Modalità: "none" (nessuna informazione), "redacted" (solo lunghezza), "sampled" (anteprima troncata
+ * per una frazione dei messaggi, lunghezza per gli altri), "full" (contenuto integrale, solo per debug locale).
+ */
+@Component
+public class ContentLogPolicy {
+
+    public enum Mode { NONE, REDACTED, SAMPLED, FULL }
+
+    private final Mode mode;
+    private final double sampleRate;
+    private final int maxChars;
+
+    public ContentLogPolicy(@Value("${logging.content.mode:redacted}") String mode,
+                            @Value("${logging.content.sample-rate:0.01}") double sampleRate,
+                            @Value("${logging.content.max-chars:200}") int maxChars) {
+        this.mode = Mode.valueOf(mode.trim().toUpperCase());
+        this.sampleRate = sampleRate;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Rappresentazione del contenuto da inserire nei log secondo la politica configurata
+     */
+    public String describe(String content) {
+        if (content == null) {
+            return "[vuoto]";
+        }
+        return switch (mode) {
+            case NONE -> "[omesso]";
+            case REDACTED -> redacted(content);
+            case SAMPLED -> ThreadLocalRandom.current().nextDouble() < sampleRate ? preview(content) : redacted(content);
+            case FULL -> content;
+        };
+    }
+
+    private String redacted(String content) {
+        return "[" + content.length() + " caratteri]";
+    }
+
+    private String preview(String content) {
+        if (content.length() <= maxChars) {
+            return content;
+        }
+        return content.substring(0, maxChars) + "… [" + content.length() + " caratteri]";
+    }
+}
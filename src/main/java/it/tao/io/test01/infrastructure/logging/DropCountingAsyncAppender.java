@@ -0,0 +1,43 @@
+package it.tao.io.test01.infrastructure.logging;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AsyncAppender con coda limitata che tiene il conto degli eventi persi.
+ * "discarded": eventi sotto WARN scartati volontariamente oltre la soglia di riempimento;
+ * "dropped": eventi persi a coda piena in modalità neverBlock (conteggio approssimato, senza lock).
+ */
+public class DropCountingAsyncAppender extends AsyncAppender {
+
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    @Override
+    protected void append(ILoggingEvent eventObject) {
+        if (isNeverBlock() && getRemainingCapacity() == 0) {
+            dropped.increment();
+            return;
+        }
+        super.append(eventObject);
+    }
+
+    @Override
+    protected boolean isDiscardable(ILoggingEvent event) {
+        boolean discardable = super.isDiscardable(event);
+        if (discardable) {
+            discarded.increment();
+        }
+        return discardable;
+    }
+
+    public long getDiscardedCount() {
+        return discarded.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,63 @@
+package it.tao.io.test01.infrastructure.logging;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.ILoggerFactory;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Espone come metriche lo stato degli appender asincroni: profondità della coda ed eventi persi
+ */
+@Component
+public class LoggingMetrics implements MeterBinder {
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        ILoggerFactory loggerFactory = LoggerFactory.getILoggerFactory();
+        if (!(loggerFactory instanceof LoggerContext loggerContext)) {
+            return;
+        }
+
+        Map<DropCountingAsyncAppender, Boolean> appenders = new IdentityHashMap<>();
+        for (ch.qos.logback.classic.Logger logger : loggerContext.getLoggerList()) {
+            Iterator<Appender<ILoggingEvent>> iterator = logger.iteratorForAppenders();
+            while (iterator.hasNext()) {
+                if (iterator.next() instanceof DropCountingAsyncAppender appender) {
+                    appenders.put(appender, Boolean.TRUE);
+                }
+            }
+        }
+
+        appenders.keySet().forEach(appender -> {
+            String name = appender.getName();
+            Gauge.builder("logging.async.queue.size", appender, DropCountingAsyncAppender::getNumberOfElementsInQueue)
+                    .description("Eventi in attesa nella coda dell'appender asincrono")
+                    .tag("appender", name)
+                    .register(registry);
+            Gauge.builder("logging.async.queue.capacity", appender, a -> a.getQueueSize())
+                    .description("Capacità della coda dell'appender asincrono")
+                    .tag("appender", name)
+                    .register(registry);
+            FunctionCounter.builder("logging.async.events.lost", appender, DropCountingAsyncAppender::getDiscardedCount)
+                    .description("Eventi di log persi dall'appender asincrono")
+                    .tag("appender", name)
+                    .tag("reason", "discarded")
+                    .register(registry);
+            FunctionCounter.builder("logging.async.events.lost", appender, DropCountingAsyncAppender::getDroppedCount)
+                    .description("Eventi di log persi dall'appender asincrono")
+                    .tag("appender", name)
+                    .tag("reason", "queue_full")
+                    .register(registry);
+        });
+    }
+}
@@ -0,0 +1,37 @@
+package it.tao.io.test01.infrastructure.logging;
+
+import io.micrometer.context.ThreadLocalAccessor;
+import org.slf4j.MDC;
+
+/**
+ * Collega una chiave MDC al Context di Reactor: con la propagazione automatica il valore
+ * scritto nel Context viene ripristinato nell'MDC su qualunque thread esegua l'operatore
+ */
+public class MdcThreadLocalAccessor implements ThreadLocalAccessor<String> {
+
+    private final String key;
+
+    public MdcThreadLocalAccessor(String key) {
+        this.key = key;
+    }
+
+    @Override
+    public Object key() {
+        return key;
+    }
+
+    @Override
+    public String getValue() {
+        return MDC.get(key);
+    }
+
+    @Override
+    public void setValue(String value) {
+        MDC.put(key, value);
+    }
+
+    @Override
+    public void setValue() {
+        MDC.remove(key);
+    }
+}
@@ -0,0 +1,63 @@
+package it.tao.io.test01.infrastructure.profiling;
+
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Endpoint actuator per la registrazione JFR:
+ * GET /actuator/jfr (stato), POST /actuator/jfr/{start|stop|enable|disable}, GET /actuator/jfr/dump (file .jfr)
+ */
+@Component
+@WebEndpoint(id = "jfr")
+public class JfrEndpoint {
+
+    private final JfrRecordingService recordingService;
+
+    public JfrEndpoint(JfrRecordingService recordingService) {
+        this.recordingService = recordingService;
+    }
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        return recordingService.status();
+    }
+
+    @ReadOperation(produces = "application/octet-stream")
+    public WebEndpointResponse<Resource> dump(@Selector String name) throws IOException {
+        if (!"dump".equals(name)) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+        }
+        Path file = recordingService.dump();
+        if (file == null) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+        }
+        return new WebEndpointResponse<>(new FileSystemResource(file), WebEndpointResponse.STATUS_OK);
+    }
+
+    @WriteOperation
+    public WebEndpointResponse<Map<String, Object>> control(@Selector String action) {
+        return switch (action) {
+            case "start" -> new WebEndpointResponse<>(recordingService.start());
+            case "stop" -> new WebEndpointResponse<>(recordingService.stop());
+            case "enable" -> {
+                recordingService.setEventsEnabled(true);
+                yield new WebEndpointResponse<>(recordingService.status());
+            }
+            case "disable" -> {
+                recordingService.setEventsEnabled(false);
+                yield new WebEndpointResponse<>(recordingService.status());
+            }
+            default -> new WebEndpointResponse<>(WebEndpointResponse.STATUS_BAD_REQUEST);
+        };
+    }
+}
@@ -0,0 +1,194 @@
+package it.tao.io.test01.infrastructure.profiling;
+
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gestione della registrazione JFR del bot e dell'attivazione degli eventi della pipeline.
+ * Gli eventi vengono emessi solo se abilitati e mentre almeno una registrazione è in corso,
+ * compresa una avviata dall'esterno (es. jcmd JFR.start).
+ */
+@Component
+public class JfrRecordingService implements FlightRecorderListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(JfrRecordingService.class);
+
+    private static final String RECORDING_NAME = "tao-chatbot";
+
+    // Eventi che riporterebbero variabili d'ambiente, proprietà di sistema e argomenti della JVM (chiavi API incluse)
+    private static final String[] SENSITIVE_EVENTS = {
+        "jdk.InitialEnvironmentVariable", "jdk.InitialSystemProperty", "jdk.JVMInformation"
+    };
+
+    private final Set<Long> runningRecordings = ConcurrentHashMap.newKeySet();
+    private final String settings;
+    private final Duration maxAge;
+    private final DataSize maxSize;
+    private volatile boolean eventsEnabled;
+
+    private Recording recording;
+    private Path lastDump;
+
+    public JfrRecordingService(@Value("${chatbot.jfr.enabled:true}") boolean eventsEnabled,
+                               @Value("${chatbot.jfr.settings:profile}") String settings,
+                               @Value("${chatbot.jfr.max-age:15m}") Duration maxAge,
+                               @Value("${chatbot.jfr.max-size:100MB}") DataSize maxSize) {
+        this.eventsEnabled = eventsEnabled;
+        this.settings = settings;
+        this.maxAge = maxAge;
+        this.maxSize = maxSize;
+
+        if (FlightRecorder.isAvailable()) {
+            FlightRecorder.addListener(this);
+            if (FlightRecorder.isInitialized()) {
+                // Registrazioni avviate prima del contesto Spring (es. -XX:StartFlightRecording)
+                FlightRecorder.getFlightRecorder().getRecordings().forEach(this::recordingStateChanged);
+            }
+        } else {
+            logger.info("JDK Flight Recorder non disponibile: eventi della pipeline disattivati");
+        }
+    }
+
+    @Override
+    public void recordingStateChanged(Recording changed) {
+        if (changed.getState() == RecordingState.RUNNING) {
+            runningRecordings.add(changed.getId());
+        } else {
+            runningRecordings.remove(changed.getId());
+        }
+        refresh();
+    }
+
+    public void setEventsEnabled(boolean enabled) {
+        this.eventsEnabled = enabled;
+        refresh();
+        logger.info("Eventi JFR della pipeline {}", enabled ? "abilitati" : "disabilitati");
+    }
+
+    /**
+     * Avvia la registrazione del bot; se è già in corso non fa nulla
+     */
+    public synchronized Map<String, Object> start() {
+        if (!FlightRecorder.isAvailable()) {
+            throw new IllegalStateException("JDK Flight Recorder non disponibile in questa JVM");
+        }
+        if (recording != null && recording.getState() == RecordingState.RUNNING) {
+            return status();
+        }
+        if (recording != null) {
+            recording.close();
+        }
+
+        Map<String, String> recordingSettings;
+        try {
+            recordingSettings = new HashMap<>(Configuration.getConfiguration(settings).getSettings());
+        } catch (IOException | ParseException e) {
+            throw new IllegalStateException("Configurazione JFR non valida: " + settings, e);
+        }
+        for (String event : SENSITIVE_EVENTS) {
+            recordingSettings.put(event + "#enabled", "false");
+        }
+        recordingSettings.put("it.tao.io.test01.PipelineStage#enabled", "true");
+        recordingSettings.put("it.tao.io.test01.OpenRouterCall#enabled", "true");
+
+        recording = new Recording(recordingSettings);
+        recording.setName(RECORDING_NAME);
+        recording.setToDisk(true);
+        recording.setMaxAge(maxAge);
+        recording.setMaxSize(maxSize.toBytes());
+        recording.start();
+        logger.info("Registrazione JFR avviata (impostazioni: {}, max-age: {}, max-size: {})", settings, maxAge, maxSize);
+        return status();
+    }
+
+    /**
+     * Ferma la registrazione conservandone i dati per il dump
+     */
+    public synchronized Map<String, Object> stop() {
+        if (recording != null && recording.getState() == RecordingState.RUNNING) {
+            recording.stop();
+            logger.info("Registrazione JFR fermata");
+        }
+        return status();
+    }
+
+    /**
+     * Scrive i dati della registrazione in un file temporaneo; null se non c'è nulla da scrivere.
+     * Il file del dump precedente viene eliminato.
+     */
+    public synchronized Path dump() throws IOException {
+        if (recording == null || recording.getState() == RecordingState.NEW || recording.getState() == RecordingState.CLOSED) {
+            return null;
+        }
+        Path file = Files.createTempFile(RECORDING_NAME + "-", ".jfr");
+        recording.dump(file);
+        deleteLastDump();
+        lastDump = file;
+        logger.info("Dump JFR scritto in {} ({} byte)", file, Files.size(file));
+        return file;
+    }
+
+    public synchronized Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("available", FlightRecorder.isAvailable());
+        status.put("eventsEnabled", eventsEnabled);
+        status.put("eventsActive", PipelineEvents.isActive());
+        status.put("runningRecordings", runningRecordings.size());
+        if (recording != null) {
+            Map<String, Object> current = new LinkedHashMap<>();
+            current.put("id", recording.getId());
+            current.put("state", recording.getState().name());
+            current.put("startTime", recording.getStartTime());
+            current.put("maxAge", recording.getMaxAge());
+            current.put("size", recording.getSize());
+            status.put("recording", current);
+        }
+        return status;
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        FlightRecorder.removeListener(this);
+        if (recording != null) {
+            recording.close();
+            recording = null;
+        }
+        deleteLastDump();
+    }
+
+    private void refresh() {
+        PipelineEvents.setActive(eventsEnabled && !runningRecordings.isEmpty());
+    }
+
+    private void deleteLastDump() {
+        if (lastDump == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(lastDump);
+        } catch (IOException e) {
+            logger.warn("Impossibile eliminare il dump JFR {}", lastDump, e);
+        }
+        lastDump = null;
+    }
+}
@@ -0,0 +1,79 @@
+package it.tao.io.test01.infrastructure.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Evento JFR per una chiamata di chat completion a OpenRouter, retry inclusi
+ */
+@Name("it.tao.io.test01.OpenRouterCall")
+@Label("OpenRouter Call")
+@Category({"TAO Chatbot", "OpenRouter"})
+@Description("Chiamata di chat completion dalla serializzazione alla decodifica della risposta")
+@StackTrace(false)
+public class OpenRouterCallEvent extends Event {
+
+    @Label("Channel Hash")
+    long channelHash;
+
+    @Label("Model")
+    String model;
+
+    @Label("Route")
+    String route;
+
+    @Label("Message Count")
+    int messageCount;
+
+    @Label("Request Bytes")
+    @DataAmount
+    long requestBytes;
+
+    @Label("Max Tokens")
+    int maxTokens;
+
+    @Label("Prompt Tokens")
+    int promptTokens;
+
+    @Label("Completion Tokens")
+    int completionTokens;
+
+    @Label("Outcome")
+    String outcome;
+
+    public void describe(long channelHash, String model, String route, int messageCount, long requestBytes, int maxTokens) {
+        this.channelHash = channelHash;
+        this.model = model;
+        this.route = route;
+        this.messageCount = messageCount;
+        this.requestBytes = requestBytes;
+        this.maxTokens = maxTokens;
+    }
+
+    public void usage(int promptTokens, int completionTokens) {
+        this.promptTokens = promptTokens;
+        this.completionTokens = completionTokens;
+    }
+
+    public void outcome(String outcome) {
+        this.outcome = outcome;
+    }
+
+    /**
+     * Chiude l'evento e lo registra se supera la soglia configurata; senza esito esplicito vale "success"
+     */
+    public void complete() {
+        end();
+        if (shouldCommit()) {
+            if (outcome == null) {
+                outcome = "success";
+            }
+            commit();
+        }
+    }
+}
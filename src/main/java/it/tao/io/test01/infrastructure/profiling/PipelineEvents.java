@@ -0,0 +1,123 @@
+package it.tao.io.test01.infrastructure.profiling;
+
+import reactor.core.publisher.Mono;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * Emissione degli eventi JFR della pipeline.
+ * Finché nessuna registrazione è attiva (o gli eventi sono disattivati) i metodi restituiscono
+ * il Mono originale senza allocare nulla: il costo è la lettura di un campo volatile.
+ */
+public final class PipelineEvents {
+
+    private static volatile boolean active;
+
+    private PipelineEvents() {
+    }
+
+    static void setActive(boolean value) {
+        active = value;
+    }
+
+    public static boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Hash non reversibile dell'ID del canale, sufficiente per correlare gli eventi della stessa conversazione
+     */
+    public static long channelHash(String channelId) {
+        if (channelId == null) {
+            return 0;
+        }
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < channelId.length(); i++) {
+            h ^= channelId.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Registra la durata di uno stadio reattivo, dalla sottoscrizione al segnale terminale
+     */
+    public static <T> Mono<T> stage(String stage, String channelId, Mono<T> source) {
+        return stage(stage, channelId, 0, 0, source, null);
+    }
+
+    /**
+     * Come {@link #stage(String, String, Mono)}, con il numero di messaggi ricavato dal risultato
+     */
+    public static <T> Mono<T> stage(String stage, String channelId, Mono<T> source, ToIntFunction<? super T> messageCount) {
+        return stage(stage, channelId, 0, 0, source, messageCount);
+    }
+
+    /**
+     * Come {@link #stage(String, String, Mono)}, con dimensione del prompt già nota
+     */
+    public static <T> Mono<T> stage(String stage, String channelId, int messageCount, int estimatedTokens, Mono<T> source) {
+        return stage(stage, channelId, messageCount, estimatedTokens, source, null);
+    }
+
+    private static <T> Mono<T> stage(String stage, String channelId, int messageCount, int estimatedTokens,
+                                     Mono<T> source, ToIntFunction<? super T> resultCount) {
+        if (!active) {
+            return source;
+        }
+        return Mono.defer(() -> {
+            PipelineStageEvent event = begin(stage, channelId);
+            if (event == null) {
+                return source;
+            }
+            event.messageCount = messageCount;
+            event.estimatedTokens = estimatedTokens;
+            return source
+                .doOnNext(value -> {
+                    if (resultCount != null) {
+                        event.messageCount = resultCount.applyAsInt(value);
+                    }
+                })
+                .doOnError(error -> event.outcome = error.getClass().getSimpleName())
+                .doOnCancel(() -> event.outcome = "cancelled")
+                .doFinally(signal -> commit(event, event.messageCount, event.estimatedTokens,
+                        event.outcome != null ? event.outcome : "success"));
+        });
+    }
+
+    /**
+     * Apre l'evento di uno stadio sincrono; null se gli eventi non vengono registrati
+     */
+    public static PipelineStageEvent begin(String stage, String channelId) {
+        if (!active) {
+            return null;
+        }
+        PipelineStageEvent event = new PipelineStageEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.stage = stage;
+        event.channelHash = channelHash(channelId);
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Chiude l'evento aperto con {@link #begin(String, String)}; ignora un evento null
+     */
+    public static void commit(PipelineStageEvent event, int messageCount, int estimatedTokens, String outcome) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.messageCount = messageCount;
+            event.estimatedTokens = estimatedTokens;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+}
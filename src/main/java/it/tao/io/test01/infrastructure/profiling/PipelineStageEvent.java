@@ -0,0 +1,35 @@
+package it.tao.io.test01.infrastructure.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Evento JFR per uno stadio della pipeline di conversazione.
+ * Il canale è registrato solo come hash, così le registrazioni non contengono identificativi Discord.
+ */
+@Name("it.tao.io.test01.PipelineStage")
+@Label("Pipeline Stage")
+@Category({"TAO Chatbot", "Pipeline"})
+@Description("Stadio della pipeline di elaborazione di un messaggio")
+@StackTrace(false)
+public class PipelineStageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Channel Hash")
+    long channelHash;
+
+    @Label("Message Count")
+    int messageCount;
+
+    @Label("Estimated Tokens")
+    int estimatedTokens;
+
+    @Label("Outcome")
+    String outcome;
+}
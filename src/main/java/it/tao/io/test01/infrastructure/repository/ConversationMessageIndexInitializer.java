@@ -0,0 +1,63 @@
+package it.tao.io.test01.infrastructure.repository;
+
+import it.tao.io.test01.domain.model.ConversationMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Crea gli indici della collezione dei messaggi:
+ * cronologia per canale e sotto-conversazione ordinata per timestamp (serve anche la cronologia del canale,
+ * interrogata con sotto-conversazione nulla) e, se abilitato,
+ * indice univoco sull'ID del messaggio Discord di origine. Quest'ultimo è sparse: i messaggi dell'assistente
+ * e quelli salvati prima dell'introduzione del campo non ne fanno parte.
+ */
+@Component
+public class ConversationMessageIndexInitializer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversationMessageIndexInitializer.class);
+
+    static final String SOURCE_MESSAGE_INDEX = "source_message_id_unique";
+    static final String CONVERSATION_INDEX = "channel_conversation_timestamp";
+
+    private final ReactiveMongoOperations mongoOperations;
+    private final boolean persistentKey;
+
+    public ConversationMessageIndexInitializer(ReactiveMongoOperations mongoOperations,
+                                               @Value("${discord.idempotency.persistent-key:true}") boolean persistentKey) {
+        this.mongoOperations = mongoOperations;
+        this.persistentKey = persistentKey;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        List<IndexDefinition> indexes = new ArrayList<>();
+        indexes.add(new Index()
+                .on("channelId", Sort.Direction.ASC)
+                .on("conversationId", Sort.Direction.ASC)
+                .on("timestamp", Sort.Direction.ASC)
+                .named(CONVERSATION_INDEX));
+        if (persistentKey) {
+            indexes.add(new Index("sourceMessageId", Sort.Direction.ASC)
+                    .named(SOURCE_MESSAGE_INDEX)
+                    .unique()
+                    .sparse());
+        }
+
+        Flux.fromIterable(indexes)
+                .concatMap(index -> mongoOperations.indexOps(ConversationMessage.class).ensureIndex(index))
+                .subscribe(name -> logger.info("Indice sui messaggi pronto: {}", name),
+                           error -> logger.warn("Impossibile creare gli indici sui messaggi", error));
+    }
+}
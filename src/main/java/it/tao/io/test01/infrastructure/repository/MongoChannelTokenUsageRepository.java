@@ -0,0 +1,53 @@
+package it.tao.io.test01.infrastructure.repository;
+
+import it.tao.io.test01.domain.model.ChannelTokenUsage;
+import it.tao.io.test01.domain.model.TokenUsage;
+import it.tao.io.test01.domain.repository.ChannelTokenUsageRepository;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+
+/**
+ * Repository MongoDB per la contabilità dei token per canale
+ * Gli incrementi avvengono con upsert atomici, senza letture preliminari
+ */
+@Repository
+public class MongoChannelTokenUsageRepository implements ChannelTokenUsageRepository {
+
+    private final ReactiveMongoOperations mongoOperations;
+
+    public MongoChannelTokenUsageRepository(ReactiveMongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    @Override
+    public Mono<Void> addUsage(String channelId, TokenUsage usage) {
+        Update update = new Update()
+                .inc("promptTokens", usage.promptTokens())
+                .inc("completionTokens", usage.completionTokens())
+                .inc("cachedPromptTokens", usage.cachedPromptTokens())
+                .inc("requests", 1)
+                .set("lastUpdated", Instant.now());
+
+        return mongoOperations.upsert(byChannel(channelId), update, ChannelTokenUsage.class).then();
+    }
+
+    @Override
+    public Mono<ChannelTokenUsage> findByChannelId(String channelId) {
+        return mongoOperations.findOne(byChannel(channelId), ChannelTokenUsage.class);
+    }
+
+    @Override
+    public Mono<Void> deleteByChannelId(String channelId) {
+        return mongoOperations.remove(byChannel(channelId), ChannelTokenUsage.class).then();
+    }
+
+    private Query byChannel(String channelId) {
+        return Query.query(Criteria.where("_id").is(channelId));
+    }
+}
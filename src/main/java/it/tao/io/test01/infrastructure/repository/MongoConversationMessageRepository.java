@@ -18,6 +18,27 @@ public interface MongoConversationMessageRepository extends ReactiveMongoReposit
      */
     Flux<ConversationMessage> findByChannelIdOrderByTimestamp(String channelId);
 
+    /**
+     * Trova i messaggi del canale esterni a ogni sotto-conversazione, ordinati per timestamp.
+     * conversationId nullo corrisponde anche ai documenti senza il campo, così l'indice per sotto-conversazione serve la query.
+     */
+    Flux<ConversationMessage> findByChannelIdAndConversationIdIsNullOrderByTimestamp(String channelId);
+
+    /**
+     * Trova i messaggi di una sotto-conversazione del canale, ordinati per timestamp
+     */
+    Flux<ConversationMessage> findByChannelIdAndConversationIdOrderByTimestamp(String channelId, String conversationId);
+
+    /**
+     * Trova il messaggio utente salvato per un messaggio Discord di origine
+     */
+    Mono<ConversationMessage> findFirstByChannelIdAndSourceMessageId(String channelId, String sourceMessageId);
+
+    /**
+     * Elimina i messaggi del canale la cui origine corrisponde all'espressione regolare
+     */
+    Mono<Long> deleteByChannelIdAndSourceMessageIdRegex(String channelId, String sourceMessageIdRegex);
+
     /**
      * Elimina tutti i messaggi di un canale specifico
      */
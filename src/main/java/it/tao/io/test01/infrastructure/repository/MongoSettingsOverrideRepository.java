@@ -0,0 +1,59 @@
+package it.tao.io.test01.infrastructure.repository;
+
+import it.tao.io.test01.domain.model.SettingsOverride;
+import it.tao.io.test01.domain.repository.SettingsOverrideRepository;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+
+/**
+ * Repository MongoDB per le impostazioni di prestazione modificate a runtime
+ * Ogni valore è scritto con un $set/$unset sul singolo campo, senza letture preliminari
+ */
+@Repository
+public class MongoSettingsOverrideRepository implements SettingsOverrideRepository {
+
+    private final ReactiveMongoOperations mongoOperations;
+
+    public MongoSettingsOverrideRepository(ReactiveMongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    @Override
+    public Flux<SettingsOverride> findAll() {
+        return mongoOperations.findAll(SettingsOverride.class);
+    }
+
+    @Override
+    public Mono<Void> setValue(String target, String key, String value) {
+        Update update = new Update()
+                .set("values." + key, value)
+                .set("updatedAt", Instant.now());
+
+        return mongoOperations.upsert(byTarget(target), update, SettingsOverride.class).then();
+    }
+
+    @Override
+    public Mono<Void> unsetValue(String target, String key) {
+        Update update = new Update()
+                .unset("values." + key)
+                .set("updatedAt", Instant.now());
+
+        return mongoOperations.updateFirst(byTarget(target), update, SettingsOverride.class).then();
+    }
+
+    @Override
+    public Mono<Void> deleteByTarget(String target) {
+        return mongoOperations.remove(byTarget(target), SettingsOverride.class).then();
+    }
+
+    private Query byTarget(String target) {
+        return Query.query(Criteria.where("_id").is(target));
+    }
+}
@@ -0,0 +1,169 @@
+package it.tao.io.test01.infrastructure.settings;
+
+import it.tao.io.test01.config.AppProperties;
+import it.tao.io.test01.config.DeadlineProperties;
+import it.tao.io.test01.config.IngressProperties;
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Valori di prestazione in vigore per una richiesta. Immutabile: una richiesta legge un'unica istanza,
+ * così una modifica a runtime non la raggiunge mai a metà.
+ */
+public record PerformanceSettings(int maxContextTokens,
+                                  int maxOutputTokens,
+                                  int retryMaxAttempts,
+                                  Duration retryBaseDelay,
+                                  Duration typingInterval,
+                                  int ingressMaxConcurrency,
+                                  int ingressQueueCapacity,
+                                  Deadlines deadlines) {
+
+    /**
+     * Budget end-to-end per tipo di canale e tempo minimo per un nuovo tentativo OpenRouter
+     */
+    public record Deadlines(Duration guild, Duration direct, Duration interaction, Duration minAttempt) {}
+
+    /**
+     * Impostazioni modificabili a runtime. Quelle globali agiscono su componenti condivisi
+     * e non accettano modifiche per server o canale.
+     */
+    public enum Knob {
+        MAX_CONTEXT_TOKENS("max-context-tokens", false),
+        MAX_OUTPUT_TOKENS("max-output-tokens", false),
+        RETRY_MAX_ATTEMPTS("retry-max-attempts", false),
+        RETRY_BASE_DELAY("retry-base-delay", false),
+        TYPING_INTERVAL("typing-interval", false),
+        INGRESS_MAX_CONCURRENCY("ingress-max-concurrency", true),
+        INGRESS_QUEUE_CAPACITY("ingress-queue-capacity", true),
+        DEADLINE_GUILD("deadline-guild", false),
+        DEADLINE_DIRECT("deadline-direct", false),
+        DEADLINE_INTERACTION("deadline-interaction", false),
+        DEADLINE_MIN_ATTEMPT("deadline-min-attempt", false);
+
+        private final String key;
+        private final boolean globalOnly;
+
+        Knob(String key, boolean globalOnly) {
+            this.key = key;
+            this.globalOnly = globalOnly;
+        }
+
+        public String key() {
+            return key;
+        }
+
+        public boolean isGlobalOnly() {
+            return globalOnly;
+        }
+
+        public static Knob of(String key) {
+            for (Knob knob : values()) {
+                if (knob.key.equals(key)) {
+                    return knob;
+                }
+            }
+            throw new IllegalArgumentException("Impostazione sconosciuta: " + key);
+        }
+    }
+
+    /**
+     * Valori da application.properties
+     */
+    public static PerformanceSettings defaults(AppProperties app, IngressProperties ingress, DeadlineProperties deadline) {
+        return new PerformanceSettings(app.getMaxContextTokens(), app.getMaxOutputTokens(),
+                app.getRetry().getMaxAttempts(), app.getRetry().getBaseDelay(), app.getTypingInterval(),
+                ingress.getMaxConcurrency(), ingress.getQueueCapacity(),
+                new Deadlines(deadline.getGuild(), deadline.getDirect(), deadline.getInteraction(), deadline.getMinAttempt()));
+    }
+
+    /**
+     * Copia con un valore modificato; IllegalArgumentException se il valore non è valido
+     */
+    public PerformanceSettings with(Knob knob, String value) {
+        return switch (knob) {
+            case MAX_CONTEXT_TOKENS -> new PerformanceSettings(integer(knob, value, 1000, 2_000_000), maxOutputTokens,
+                    retryMaxAttempts, retryBaseDelay, typingInterval, ingressMaxConcurrency, ingressQueueCapacity, deadlines);
+            case MAX_OUTPUT_TOKENS -> new PerformanceSettings(maxContextTokens, integer(knob, value, 0, 200_000),
+                    retryMaxAttempts, retryBaseDelay, typingInterval, ingressMaxConcurrency, ingressQueueCapacity, deadlines);
+            case RETRY_MAX_ATTEMPTS -> new PerformanceSettings(maxContextTokens, maxOutputTokens,
+                    integer(knob, value, 0, 10), retryBaseDelay, typingInterval, ingressMaxConcurrency, ingressQueueCapacity,
+                    deadlines);
+            case RETRY_BASE_DELAY -> new PerformanceSettings(maxContextTokens, maxOutputTokens, retryMaxAttempts,
+                    duration(knob, value, Duration.ZERO, Duration.ofMinutes(1)), typingInterval,
+                    ingressMaxConcurrency, ingressQueueCapacity, deadlines);
+            case TYPING_INTERVAL -> new PerformanceSettings(maxContextTokens, maxOutputTokens, retryMaxAttempts,
+                    retryBaseDelay, duration(knob, value, Duration.ofSeconds(1), Duration.ofSeconds(10)),
+                    ingressMaxConcurrency, ingressQueueCapacity, deadlines);
+            case INGRESS_MAX_CONCURRENCY -> new PerformanceSettings(maxContextTokens, maxOutputTokens, retryMaxAttempts,
+                    retryBaseDelay, typingInterval, integer(knob, value, 1, 10_000), ingressQueueCapacity, deadlines);
+            case INGRESS_QUEUE_CAPACITY -> new PerformanceSettings(maxContextTokens, maxOutputTokens, retryMaxAttempts,
+                    retryBaseDelay, typingInterval, ingressMaxConcurrency, integer(knob, value, 0, 100_000), deadlines);
+            case DEADLINE_GUILD -> withDeadlines(new Deadlines(
+                    duration(knob, value, Duration.ofSeconds(5), Duration.ofMinutes(15)),
+                    deadlines.direct(), deadlines.interaction(), deadlines.minAttempt()));
+            case DEADLINE_DIRECT -> withDeadlines(new Deadlines(deadlines.guild(),
+                    duration(knob, value, Duration.ofSeconds(5), Duration.ofMinutes(15)),
+                    deadlines.interaction(), deadlines.minAttempt()));
+            // La risposta differita di un comando slash è modificabile solo per 15 minuti
+            case DEADLINE_INTERACTION -> withDeadlines(new Deadlines(deadlines.guild(), deadlines.direct(),
+                    duration(knob, value, Duration.ofSeconds(5), Duration.ofMinutes(14)), deadlines.minAttempt()));
+            case DEADLINE_MIN_ATTEMPT -> withDeadlines(new Deadlines(deadlines.guild(), deadlines.direct(),
+                    deadlines.interaction(), duration(knob, value, Duration.ZERO, Duration.ofMinutes(2))));
+        };
+    }
+
+    private PerformanceSettings withDeadlines(Deadlines updated) {
+        return new PerformanceSettings(maxContextTokens, maxOutputTokens, retryMaxAttempts, retryBaseDelay,
+                typingInterval, ingressMaxConcurrency, ingressQueueCapacity, updated);
+    }
+
+    /**
+     * Valori per chiave, nello stesso formato accettato in modifica
+     */
+    public Map<String, Object> describe() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put(Knob.MAX_CONTEXT_TOKENS.key(), maxContextTokens);
+        values.put(Knob.MAX_OUTPUT_TOKENS.key(), maxOutputTokens);
+        values.put(Knob.RETRY_MAX_ATTEMPTS.key(), retryMaxAttempts);
+        values.put(Knob.RETRY_BASE_DELAY.key(), retryBaseDelay.toString());
+        values.put(Knob.TYPING_INTERVAL.key(), typingInterval.toString());
+        values.put(Knob.INGRESS_MAX_CONCURRENCY.key(), ingressMaxConcurrency);
+        values.put(Knob.INGRESS_QUEUE_CAPACITY.key(), ingressQueueCapacity);
+        values.put(Knob.DEADLINE_GUILD.key(), deadlines.guild().toString());
+        values.put(Knob.DEADLINE_DIRECT.key(), deadlines.direct().toString());
+        values.put(Knob.DEADLINE_INTERACTION.key(), deadlines.interaction().toString());
+        values.put(Knob.DEADLINE_MIN_ATTEMPT.key(), deadlines.minAttempt().toString());
+        return values;
+    }
+
+    private static int integer(Knob knob, String value, int min, int max) {
+        int parsed;
+        try {
+            parsed = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(knob.key() + ": numero intero non valido: " + value);
+        }
+        if (parsed < min || parsed > max) {
+            throw new IllegalArgumentException(knob.key() + ": valore fuori intervallo [" + min + ", " + max + "]: " + value);
+        }
+        return parsed;
+    }
+
+    private static Duration duration(Knob knob, String value, Duration min, Duration max) {
+        Duration parsed;
+        try {
+            // Stesso formato di application.properties: 500ms, 2s, PT2S o millisecondi
+            parsed = DurationStyle.detectAndParse(value.trim());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(knob.key() + ": durata non valida: " + value);
+        }
+        if (parsed.compareTo(min) < 0 || parsed.compareTo(max) > 0) {
+            throw new IllegalArgumentException(knob.key() + ": valore fuori intervallo [" + min + ", " + max + "]: " + value);
+        }
+        return parsed;
+    }
+}
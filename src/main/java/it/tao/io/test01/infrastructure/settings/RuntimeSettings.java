@@ -0,0 +1,278 @@
+package it.tao.io.test01.infrastructure.settings;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.tao.io.test01.config.AppProperties;
+import it.tao.io.test01.config.DeadlineProperties;
+import it.tao.io.test01.config.IngressProperties;
+import it.tao.io.test01.config.LoggingContextConfiguration;
+import it.tao.io.test01.domain.model.SettingsOverride;
+import it.tao.io.test01.domain.repository.SettingsOverrideRepository;
+import it.tao.io.test01.infrastructure.settings.PerformanceSettings.Knob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/**
+ * Impostazioni di prestazione modificabili senza riavvio.
+ * I predefiniti vengono da AppProperties e IngressProperties; sopra di essi si applicano, in ordine,
+ * le modifiche globali, del server e del canale salvate su MongoDB. Lo stato è un'istantanea immutabile
+ * sostituita in blocco a ogni modifica o ricarica: chi la legge vede tutti i valori vecchi o tutti i nuovi.
+ * La ricarica periodica allinea le istanze che non hanno ricevuto la modifica.
+ */
+@Component
+public class RuntimeSettings {
+
+    private static final Logger logger = LoggerFactory.getLogger(RuntimeSettings.class);
+
+    /** Chiave del Context di Reactor con l'ID del server della richiesta (assente nei messaggi diretti) */
+    public static final String GUILD_ID = "guildId";
+
+    public static final String GLOBAL = "global";
+    private static final Pattern TARGET = Pattern.compile("global|(guild|channel):\\d+");
+
+    private final PerformanceSettings defaults;
+    private final SettingsOverrideRepository repository;
+    private final Counter updates;
+    private final AtomicReference<Snapshot> snapshot;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    public RuntimeSettings(AppProperties appProperties,
+                           IngressProperties ingressProperties,
+                           DeadlineProperties deadlineProperties,
+                           SettingsOverrideRepository repository,
+                           MeterRegistry meterRegistry) {
+        this.defaults = PerformanceSettings.defaults(appProperties, ingressProperties, deadlineProperties);
+        this.repository = repository;
+        this.snapshot = new AtomicReference<>(Snapshot.of(defaults, List.of()));
+        this.updates = Counter.builder("app.tuning.updates")
+                .description("Modifiche alle impostazioni di prestazione applicate a runtime")
+                .register(meterRegistry);
+        Gauge.builder("app.tuning.overrides", this, settings -> settings.snapshot.get().overrides().size())
+                .description("Ambiti (globale, server, canale) con impostazioni modificate")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Impostazioni globali in vigore
+     */
+    public PerformanceSettings current() {
+        return snapshot.get().global();
+    }
+
+    /**
+     * Impostazioni per un canale: globali, poi quelle del server, poi quelle del canale
+     */
+    public PerformanceSettings resolve(String guildId, String channelId) {
+        Snapshot current = snapshot.get();
+        Map<Knob, String> guild = guildId != null ? current.scoped().get("guild:" + guildId) : null;
+        Map<Knob, String> channel = channelId != null ? current.scoped().get("channel:" + channelId) : null;
+        if (guild == null && channel == null) {
+            return current.global();
+        }
+        return apply(apply(current.global(), guild), channel);
+    }
+
+    /**
+     * Impostazioni per la richiesta descritta dal Context (canale e server)
+     */
+    public PerformanceSettings from(ContextView context) {
+        return resolve(context.getOrDefault(GUILD_ID, null),
+                       context.getOrDefault(LoggingContextConfiguration.CHANNEL_ID, null));
+    }
+
+    /**
+     * Registra un componente da avvisare dopo ogni sostituzione dell'istantanea
+     */
+    public void onChange(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Salva un valore per l'ambito e lo applica subito. Il valore è validato prima di essere scritto.
+     */
+    public Mono<Map<String, Object>> set(String target, String key, String value) {
+        return Mono.fromCallable(() -> {
+                Knob knob = validate(target, key);
+                current().with(knob, value);
+                return knob;
+            })
+            .flatMap(knob -> repository.setValue(target, knob.key(), value.trim())
+                .then(reload())
+                .doOnSuccess(done -> {
+                    updates.increment();
+                    logger.info("Impostazione aggiornata: {} {}={}", target, knob.key(), value);
+                }))
+            .then(Mono.fromSupplier(() -> describe(target)));
+    }
+
+    /**
+     * Riporta un valore dell'ambito (o tutti, con key null) a quello ereditato
+     */
+    public Mono<Map<String, Object>> reset(String target, String key) {
+        return Mono.fromCallable(() -> key != null ? validate(target, key).key() : validateTarget(target))
+            .flatMap(validated -> (key != null ? repository.unsetValue(target, validated) : repository.deleteByTarget(target))
+                .then(reload())
+                .doOnSuccess(done -> {
+                    updates.increment();
+                    logger.info("Impostazione ripristinata: {} {}", target, key != null ? key : "(tutte)");
+                }))
+            .then(Mono.fromSupplier(() -> describe(target)));
+    }
+
+    /**
+     * Rilegge le modifiche da MongoDB e sostituisce l'istantanea
+     */
+    public Mono<Void> reload() {
+        return repository.findAll()
+            .collectList()
+            .doOnNext(overrides -> {
+                snapshot.set(Snapshot.of(defaults, overrides));
+                listeners.forEach(Runnable::run);
+            })
+            .then();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        reload().subscribe(done -> { },
+                error -> logger.warn("Impossibile caricare le impostazioni modificate, restano i predefiniti", error),
+                () -> logger.info("Impostazioni di prestazione caricate: {} ambiti modificati",
+                                  snapshot.get().overrides().size()));
+    }
+
+    @Scheduled(fixedDelayString = "${app.tuning.refresh-interval:60000}")
+    public void refresh() {
+        // In caso di errore resta in vigore l'ultima istantanea valida
+        reload().subscribe(done -> { },
+                error -> logger.warn("Ricarica delle impostazioni non riuscita: {}", error.getMessage()));
+    }
+
+    /**
+     * Predefiniti, valori globali in vigore e modifiche salvate per ambito
+     */
+    public Map<String, Object> status() {
+        Snapshot current = snapshot.get();
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("defaults", defaults.describe());
+        status.put("effective", current.global().describe());
+        status.put("overrides", current.overrides());
+        return status;
+    }
+
+    /**
+     * Valori in vigore per un ambito e modifiche salvate per esso.
+     * Per un canale non si conosce il server: i valori mostrati non includono le modifiche del server.
+     */
+    public Map<String, Object> describe(String target) {
+        validateTarget(target);
+        PerformanceSettings effective;
+        if (target.startsWith("guild:")) {
+            effective = resolve(target.substring("guild:".length()), null);
+        } else if (target.startsWith("channel:")) {
+            effective = resolve(null, target.substring("channel:".length()));
+        } else {
+            effective = current();
+        }
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("target", target);
+        description.put("effective", effective.describe());
+        description.put("overrides", snapshot.get().overrides().getOrDefault(target, Map.of()));
+        return description;
+    }
+
+    private static PerformanceSettings apply(PerformanceSettings settings, Map<Knob, String> layer) {
+        if (layer != null) {
+            for (Map.Entry<Knob, String> entry : layer.entrySet()) {
+                settings = settings.with(entry.getKey(), entry.getValue());
+            }
+        }
+        return settings;
+    }
+
+    private static String validateTarget(String target) {
+        if (target == null || !TARGET.matcher(target).matches()) {
+            throw new IllegalArgumentException("Ambito non valido (global, guild:<id>, channel:<id>): " + target);
+        }
+        return target;
+    }
+
+    private static Knob validate(String target, String key) {
+        validateTarget(target);
+        Knob knob = Knob.of(key);
+        if (knob.isGlobalOnly() && !GLOBAL.equals(target)) {
+            throw new IllegalArgumentException(key + " è modificabile solo nell'ambito global");
+        }
+        return knob;
+    }
+
+    /**
+     * Istantanea: impostazioni globali già calcolate, valori validati per server e canale, modifiche salvate
+     */
+    private record Snapshot(PerformanceSettings global,
+                            Map<String, Map<Knob, String>> scoped,
+                            Map<String, Map<String, String>> overrides) {
+
+        static Snapshot of(PerformanceSettings defaults, List<SettingsOverride> documents) {
+            PerformanceSettings global = defaults;
+            Map<String, Map<Knob, String>> scoped = new TreeMap<>();
+            Map<String, Map<String, String>> overrides = new TreeMap<>();
+
+            // Prima l'ambito globale: i valori di server e canale sono validati rispetto a esso
+            for (SettingsOverride document : documents) {
+                if (GLOBAL.equals(document.getTarget()) && document.getValues() != null) {
+                    for (Map.Entry<String, String> entry : document.getValues().entrySet()) {
+                        global = applyOrSkip(global, document.getTarget(), entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            for (SettingsOverride document : documents) {
+                if (document.getValues() == null || document.getValues().isEmpty()) {
+                    continue;
+                }
+                overrides.put(document.getTarget(), new TreeMap<>(document.getValues()));
+                if (GLOBAL.equals(document.getTarget())) {
+                    continue;
+                }
+                Map<Knob, String> layer = new EnumMap<>(Knob.class);
+                for (Map.Entry<String, String> entry : document.getValues().entrySet()) {
+                    try {
+                        Knob knob = validate(document.getTarget(), entry.getKey());
+                        global.with(knob, entry.getValue());
+                        layer.put(knob, entry.getValue());
+                    } catch (IllegalArgumentException e) {
+                        logger.warn("Impostazione ignorata per {}: {}", document.getTarget(), e.getMessage());
+                    }
+                }
+                if (!layer.isEmpty()) {
+                    scoped.put(document.getTarget(), layer);
+                }
+            }
+            return new Snapshot(global, Map.copyOf(scoped), Map.copyOf(overrides));
+        }
+
+        private static PerformanceSettings applyOrSkip(PerformanceSettings settings, String target, String key, String value) {
+            try {
+                return settings.with(validate(target, key), value);
+            } catch (IllegalArgumentException e) {
+                logger.warn("Impostazione ignorata per {}: {}", target, e.getMessage());
+                return settings;
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package it.tao.io.test01.infrastructure.settings;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+/**
+ * Endpoint actuator per le impostazioni di prestazione, con ambito global, guild:<id> o channel:<id>:
+ * GET /actuator/tuning (stato), GET /actuator/tuning/{ambito},
+ * POST /actuator/tuning/{ambito}/{impostazione} con {"value": ...},
+ * DELETE /actuator/tuning/{ambito}/{impostazione} e DELETE /actuator/tuning/{ambito}
+ */
+@Component
+@WebEndpoint(id = "tuning")
+public class TuningEndpoint {
+
+    private final RuntimeSettings runtimeSettings;
+
+    public TuningEndpoint(RuntimeSettings runtimeSettings) {
+        this.runtimeSettings = runtimeSettings;
+    }
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        return runtimeSettings.status();
+    }
+
+    @ReadOperation
+    public WebEndpointResponse<Map<String, Object>> target(@Selector String target) {
+        try {
+            return new WebEndpointResponse<>(runtimeSettings.describe(target));
+        } catch (IllegalArgumentException e) {
+            return badRequest(e);
+        }
+    }
+
+    @WriteOperation
+    public Mono<WebEndpointResponse<Map<String, Object>>> set(@Selector String target, @Selector String setting, String value) {
+        return respond(runtimeSettings.set(target, setting, value));
+    }
+
+    @DeleteOperation
+    public Mono<WebEndpointResponse<Map<String, Object>>> reset(@Selector String target, @Selector String setting) {
+        return respond(runtimeSettings.reset(target, setting));
+    }
+
+    @DeleteOperation
+    public Mono<WebEndpointResponse<Map<String, Object>>> resetAll(@Selector String target) {
+        return respond(runtimeSettings.reset(target, null));
+    }
+
+    private static Mono<WebEndpointResponse<Map<String, Object>>> respond(Mono<Map<String, Object>> result) {
+        return result
+            .map(WebEndpointResponse::new)
+            .onErrorResume(IllegalArgumentException.class, e -> Mono.just(badRequest(e)));
+    }
+
+    private static WebEndpointResponse<Map<String, Object>> badRequest(IllegalArgumentException e) {
+        return new WebEndpointResponse<>(Map.of("error", e.getMessage()), WebEndpointResponse.STATUS_BAD_REQUEST);
+    }
+}
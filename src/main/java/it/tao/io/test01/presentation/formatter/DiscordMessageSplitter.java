@@ -0,0 +1,171 @@
+package it.tao.io.test01.presentation.formatter;
+
+import it.tao.io.test01.config.AppProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Divide le risposte lunghe in parti compatibili con il limite di caratteri dei messaggi Discord.
+ * Lavora per indici sulla stringa originale (una sola passata, nessuna copia del resto del testo),
+ * preferisce i confini di paragrafo, riga, frase e parola, non separa le coppie surrogate e,
+ * se il taglio cade dentro un blocco di codice, lo chiude a fine parte e lo riapre nella successiva.
+ */
+@Component
+public class DiscordMessageSplitter {
+
+    private static final String FENCE = "```";
+    private static final String FENCE_CLOSE = "\n" + FENCE;
+    private static final int MAX_FENCE_LINE = 64;
+
+    private final AppProperties appProperties;
+
+    public DiscordMessageSplitter(AppProperties appProperties) {
+        this.appProperties = appProperties;
+    }
+
+    /**
+     * Restituisce le parti da inviare in sequenza (una sola se il messaggio rientra nel limite,
+     * nessuna se è vuoto: Discord rifiuta i messaggi senza testo)
+     */
+    public List<String> split(String message) {
+        int limit = appProperties.getDiscordMessageLimit();
+        if (message.isBlank()) {
+            return List.of();
+        }
+        if (message.length() <= limit) {
+            return List.of(message);
+        }
+
+        List<String> parts = new ArrayList<>(message.length() / limit + 2);
+        int length = message.length();
+        int position = skipWhitespace(message, 0, null);
+        String openFence = null; // riga di apertura del blocco di codice aperto al punto corrente
+
+        while (position < length) {
+            // Riapre il blocco con la stessa riga (linguaggio incluso), salvo righe anomale troppo lunghe
+            String reopen = openFence == null ? "" : (openFence.length() <= MAX_FENCE_LINE ? openFence : FENCE) + "\n";
+            // Spazio per il testo: limite meno la riapertura e l'eventuale chiusura del blocco di codice
+            int budget = limit - reopen.length() - FENCE_CLOSE.length();
+
+            int end;
+            if (length - position <= limit - reopen.length()) {
+                end = length;
+            } else {
+                end = findBreak(message, position, position + budget);
+            }
+
+            String fenceAtEnd = fenceStateAfter(message, position, end, openFence);
+
+            StringBuilder part = new StringBuilder(limit);
+            part.append(reopen);
+            part.append(message, position, trimEnd(message, position, end, fenceAtEnd != null));
+            if (fenceAtEnd != null && end < length) {
+                part.append(FENCE_CLOSE);
+            }
+            String text = part.toString();
+            if (!text.isBlank()) {
+                parts.add(text);
+            }
+
+            openFence = end < length ? fenceAtEnd : null;
+            position = skipWhitespace(message, end, openFence);
+        }
+
+        return parts;
+    }
+
+    /**
+     * Miglior punto di taglio in (start, hardEnd]: paragrafo, poi riga, poi fine frase, poi spazio.
+     * Paragrafi, righe e frasi valgono solo nella seconda metà della finestra, per non produrre parti troppo corte.
+     */
+    private int findBreak(String text, int start, int hardEnd) {
+        int end = hardEnd;
+        if (Character.isHighSurrogate(text.charAt(end - 1)) && Character.isLowSurrogate(text.charAt(end))) {
+            end--;
+        }
+
+        int floor = start + (end - start) / 2;
+        int line = -1;
+        int sentence = -1;
+        int space = -1;
+
+        for (int i = end - 1; i > start; i--) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                if (i >= floor && text.charAt(i - 1) == '\n') {
+                    return i + 1;
+                }
+                if (line < 0 && i >= floor) {
+                    line = i + 1;
+                }
+            } else if (c == ' ' || c == '\t') {
+                if (space < 0) {
+                    space = i + 1;
+                }
+                char previous = text.charAt(i - 1);
+                if (sentence < 0 && i >= floor && (previous == '.' || previous == '!' || previous == '?' || previous == ';')) {
+                    sentence = i + 1;
+                }
+            }
+            if (i < floor && space >= 0) {
+                break;
+            }
+        }
+
+        if (line >= 0) {
+            return line;
+        }
+        if (sentence >= 0) {
+            return sentence;
+        }
+        return space >= 0 ? space : end;
+    }
+
+    /**
+     * Stato dei blocchi di codice dopo il tratto [start, end): riga di apertura del blocco aperto, null se chiuso
+     */
+    private String fenceStateAfter(String text, int start, int end, String openFence) {
+        String fence = openFence;
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd < 0 || lineEnd > end) {
+                lineEnd = end;
+            }
+            int content = lineStart;
+            while (content < lineEnd && content - lineStart < 3 && text.charAt(content) == ' ') {
+                content++;
+            }
+            if (text.startsWith(FENCE, content)) {
+                fence = fence == null ? text.substring(content, lineEnd).stripTrailing() : null;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return fence;
+    }
+
+    private int trimEnd(String text, int start, int end, boolean inCode) {
+        int trimmed = end;
+        // Nel codice si conserva l'indentazione, si scarta solo l'a capo finale
+        while (trimmed > start && (inCode ? text.charAt(trimmed - 1) == '\n' : Character.isWhitespace(text.charAt(trimmed - 1)))) {
+            trimmed--;
+        }
+        return trimmed;
+    }
+
+    private int skipWhitespace(String text, int position, String openFence) {
+        int i = position;
+        if (openFence != null) {
+            while (i < text.length() && text.charAt(i) == '\n') {
+                i++;
+            }
+            return i;
+        }
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,40 @@
+package it.tao.io.test01.presentation.formatter;
+
+import it.tao.io.test01.infrastructure.deadline.DeadlineExceededException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Traduce gli errori della pipeline in messaggi comprensibili per gli utenti Discord
+ */
+@Component
+public class ErrorReplyFormatter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ErrorReplyFormatter.class);
+
+    public String format(Throwable error, String channelId) {
+        String errorMsg = error.getMessage() != null ? error.getMessage() : "";
+
+        if (error instanceof DeadlineExceededException deadlineExceeded) {
+            logger.warn("Scadenza della richiesta superata nello stadio {} - Canale: {}", deadlineExceeded.getStage(), channelId);
+            return "⏱️ La risposta sta richiedendo troppo tempo. Riprova tra poco.";
+        } else if (errorMsg.contains("temporaneamente non disponibile")) {
+            logger.warn("Servizio OpenRouter non disponibile - Canale: {}", channelId);
+            return "⚠️ Il servizio AI è temporaneamente non disponibile. Riprova tra qualche minuto.";
+        } else if (error.getCause() != null && error.getCause().getMessage() != null &&
+                  error.getCause().getMessage().contains("Failed to resolve")) {
+            logger.warn("Errore DNS per OpenRouter - Canale: {}", channelId);
+            return "🌐 Problema di connessione di rete. Riprova tra poco.";
+        }
+        return "🤖 Oops! Qualcosa è andato storto. Riprova tra poco.";
+    }
+
+    /**
+     * Testo inviato al posto di una risposta vuota del modello, che Discord rifiuterebbe
+     */
+    public String emptyResponse(String channelId) {
+        logger.warn("Risposta AI vuota - Canale: {}", channelId);
+        return "🤖 Non ho trovato una risposta da darti. Prova a riformulare la domanda.";
+    }
+}
@@ -0,0 +1,182 @@
+package it.tao.io.test01.presentation.ingress;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.tao.io.test01.config.RateLimitProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Limitatore di frequenza in ingresso con finestre scorrevoli per utente, canale e server.
+ * Ogni finestra è divisa in sotto-intervalli contati con CAS su un array di long (epoca + conteggio
+ * impacchettati), quindi nessun lock sul percorso caldo; le chiavi inattive vengono rimosse periodicamente.
+ * Sotto forte concorrenza il limite può essere superato di poche unità: è accettabile per la protezione della quota.
+ */
+@Component
+public class IngressRateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngressRateLimiter.class);
+
+    /** Sotto-intervalli per finestra: precisione della finestra scorrevole */
+    private static final int SLOTS = 10;
+
+    public enum Scope { USER, CHANNEL, GUILD }
+
+    private final RateLimitProperties properties;
+    private final long origin = System.nanoTime();
+    private final Map<Scope, ConcurrentHashMap<String, SlidingWindow>> windows = new EnumMap<>(Scope.class);
+    private final Map<Scope, Counter> rejected = new EnumMap<>(Scope.class);
+    private final Counter allowed;
+
+    public IngressRateLimiter(RateLimitProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        for (Scope scope : Scope.values()) {
+            ConcurrentHashMap<String, SlidingWindow> map = new ConcurrentHashMap<>();
+            windows.put(scope, map);
+            rejected.put(scope, Counter.builder("discord.ratelimit.requests")
+                    .description("Richieste in ingresso valutate dal limitatore")
+                    .tag("result", "rejected")
+                    .tag("scope", scope.name().toLowerCase())
+                    .register(meterRegistry));
+            Gauge.builder("discord.ratelimit.keys", map, Map::size)
+                    .description("Chiavi con contatori attivi")
+                    .tag("scope", scope.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+        this.allowed = Counter.builder("discord.ratelimit.requests")
+                .description("Richieste in ingresso valutate dal limitatore")
+                .tag("result", "allowed")
+                .tag("scope", "all")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Registra una richiesta se tutti i limiti la consentono.
+     * Restituisce l'ambito che l'ha rifiutata, vuoto se ammessa. guildId è null per i messaggi diretti.
+     */
+    public Optional<Scope> tryAcquire(String userId, String channelId, String guildId) {
+        if (!properties.isEnabled()) {
+            return Optional.empty();
+        }
+        long now = System.nanoTime() - origin;
+
+        SlidingWindow user = window(Scope.USER, userId, properties.getUser(), now);
+        SlidingWindow channel = window(Scope.CHANNEL, channelId, properties.getChannel(), now);
+        SlidingWindow guild = guildId != null ? window(Scope.GUILD, guildId, properties.getGuild(), now) : null;
+
+        // Verifica tutti i livelli prima di consumare, così un rifiuto non erode la quota degli altri
+        Optional<Scope> exceeded = exceeded(Scope.USER, user, properties.getUser(), now)
+                .or(() -> exceeded(Scope.CHANNEL, channel, properties.getChannel(), now))
+                .or(() -> exceeded(Scope.GUILD, guild, properties.getGuild(), now));
+        if (exceeded.isPresent()) {
+            rejected.get(exceeded.get()).increment();
+            logger.debug("Richiesta rifiutata dal limite {} - Utente: {}, Canale: {}", exceeded.get(), userId, channelId);
+            return exceeded;
+        }
+
+        record(user, now);
+        record(channel, now);
+        record(guild, now);
+        allowed.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Rimuove le chiavi senza richieste da più di idle-expiry (e comunque oltre la loro finestra)
+     */
+    @Scheduled(fixedDelayString = "${discord.rate-limit.eviction-interval:60000}")
+    public void evictIdle() {
+        long now = System.nanoTime() - origin;
+        long idleNanos = properties.getIdleExpiry().toNanos();
+        int removed = 0;
+        for (ConcurrentHashMap<String, SlidingWindow> map : windows.values()) {
+            int before = map.size();
+            map.values().removeIf(window -> now - window.lastAccess > Math.max(idleNanos, window.windowNanos()));
+            removed += before - map.size();
+        }
+        if (removed > 0) {
+            logger.debug("Limitatore: rimosse {} chiavi inattive", removed);
+        }
+    }
+
+    private SlidingWindow window(Scope scope, String key, RateLimitProperties.Limit limit, long now) {
+        if (key == null || limit.getRequests() <= 0) {
+            return null;
+        }
+        long slotNanos = Math.max(1, limit.getWindow().toNanos() / SLOTS);
+        ConcurrentHashMap<String, SlidingWindow> map = windows.get(scope);
+        SlidingWindow window = map.get(key);
+        if (window == null || window.slotNanos != slotNanos) {
+            // Chiave nuova o finestra riconfigurata: riparte da zero
+            SlidingWindow fresh = new SlidingWindow(slotNanos);
+            window = window == null ? map.computeIfAbsent(key, k -> fresh) : map.merge(key, fresh, (a, b) -> b);
+        }
+        window.lastAccess = now;
+        return window;
+    }
+
+    private static Optional<Scope> exceeded(Scope scope, SlidingWindow window, RateLimitProperties.Limit limit, long now) {
+        if (window == null) {
+            return Optional.empty();
+        }
+        return window.count(now) >= limit.getRequests() ? Optional.of(scope) : Optional.empty();
+    }
+
+    private static void record(SlidingWindow window, long now) {
+        if (window != null) {
+            window.add(now);
+        }
+    }
+
+    /**
+     * Finestra scorrevole a sotto-intervalli: ogni slot contiene (epoca << 32 | conteggio)
+     */
+    private static final class SlidingWindow {
+
+        private final long slotNanos;
+        private final AtomicLongArray slots = new AtomicLongArray(SLOTS);
+        private volatile long lastAccess;
+
+        SlidingWindow(long slotNanos) {
+            this.slotNanos = slotNanos;
+        }
+
+        long windowNanos() {
+            return slotNanos * SLOTS;
+        }
+
+        int count(long now) {
+            long epoch = now / slotNanos;
+            int total = 0;
+            for (int i = 0; i < SLOTS; i++) {
+                long slot = slots.get(i);
+                long slotEpoch = slot >>> 32;
+                if (slotEpoch > epoch - SLOTS && slotEpoch <= epoch) {
+                    total += (int) slot;
+                }
+            }
+            return total;
+        }
+
+        void add(long now) {
+            long epoch = now / slotNanos;
+            int index = (int) (epoch % SLOTS);
+            while (true) {
+                long current = slots.get(index);
+                long next = (current >>> 32) == epoch ? current + 1 : (epoch << 32) | 1;
+                if (slots.compareAndSet(index, current, next)) {
+                    return;
+                }
+            }
+        }
+    }
+}
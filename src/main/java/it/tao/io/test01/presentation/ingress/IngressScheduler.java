@@ -0,0 +1,418 @@
+package it.tao.io.test01.presentation.ingress;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.tao.io.test01.config.IngressProperties;
+import it.tao.io.test01.infrastructure.settings.PerformanceSettings;
+import it.tao.io.test01.infrastructure.settings.RuntimeSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stadio di ingresso limitato tra i listener JDA e la pipeline, con un compartimento per server.
+ * Al massimo maxConcurrency pipeline sono sottoscritte insieme. Ogni server ha, secondo il proprio livello,
+ * una quota garantita di slot e una coda propria: oltre la quota può prendere in prestito gli slot liberi,
+ * esclusa una riserva globale tenuta per i server ancora sotto quota. Quando uno slot si libera passano
+ * prima le richieste prioritarie, poi i server sotto quota, poi quelli con meno pipeline attive in
+ * rapporto al peso. A coda piena viene scartata la richiesta più recente del server con più attese.
+ * Concorrenza e capacità globali sono lette da RuntimeSettings e modificabili senza riavvio.
+ */
+@Component
+public class IngressScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngressScheduler.class);
+
+    /** Compartimento dei messaggi diretti, che non appartengono a un server */
+    private static final String DIRECT = "direct";
+
+    /** Classi di priorità: messaggi diretti e moderatori prima del traffico dei canali */
+    public enum Priority { HIGH, NORMAL }
+
+    private final IngressProperties properties;
+    private final RuntimeSettings runtimeSettings;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Tenant> tenants = new HashMap<>();
+    private final Map<Priority, Timer> waitTimers = new EnumMap<>(Priority.class);
+    private final Map<Priority, Counter> shedCounters = new EnumMap<>(Priority.class);
+    private final Map<String, Counter> borrowedCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> saturationCounters = new ConcurrentHashMap<>();
+    private int running;
+    private int queued;
+
+    public IngressScheduler(IngressProperties properties, RuntimeSettings runtimeSettings, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.runtimeSettings = runtimeSettings;
+        this.meterRegistry = meterRegistry;
+        for (Priority priority : Priority.values()) {
+            String tag = priority.name().toLowerCase();
+            waitTimers.put(priority, Timer.builder("discord.ingress.wait")
+                    .description("Attesa in coda prima dell'avvio della pipeline")
+                    .tag("priority", tag)
+                    .register(meterRegistry));
+            shedCounters.put(priority, Counter.builder("discord.ingress.shed")
+                    .description("Richieste scartate dallo stadio di ingresso")
+                    .tag("priority", tag)
+                    .register(meterRegistry));
+            Gauge.builder("discord.ingress.queue.depth", this, scheduler -> scheduler.depth(priority))
+                    .description("Richieste in attesa nello stadio di ingresso")
+                    .tag("priority", tag)
+                    .register(meterRegistry);
+        }
+        Gauge.builder("discord.ingress.active", this, IngressScheduler::active)
+                .description("Pipeline in esecuzione")
+                .register(meterRegistry);
+        for (String tier : properties.getTiers().keySet()) {
+            Gauge.builder("discord.ingress.tier.active", this, scheduler -> scheduler.tierActive(tier))
+                    .description("Pipeline in esecuzione per livello")
+                    .tag("tier", tier)
+                    .register(meterRegistry);
+            Gauge.builder("discord.ingress.tier.queued", this, scheduler -> scheduler.tierQueued(tier))
+                    .description("Richieste in attesa per livello")
+                    .tag("tier", tier)
+                    .register(meterRegistry);
+        }
+        // Un limite alzato a runtime avvia subito le richieste in attesa
+        runtimeSettings.onChange(this::rebalance);
+    }
+
+    /**
+     * Accoda la pipeline nel compartimento del server (null per i messaggi diretti). onShed viene invocato
+     * (una sola volta) se la richiesta viene scartata, subito o più tardi se sostituita da un'altra.
+     * Il Disposable restituito annulla la richiesta sia in attesa sia in esecuzione; gli errori della
+     * pipeline devono essere già gestiti a monte.
+     */
+    public Disposable submit(String guildId, Priority priority, Mono<?> pipeline, Runnable onShed) {
+        Ticket ticket;
+        Ticket evicted = null;
+        boolean start = false;
+        boolean shed = false;
+
+        synchronized (this) {
+            PerformanceSettings limits = runtimeSettings.current();
+            Tenant tenant = tenants.computeIfAbsent(guildId != null ? guildId : DIRECT,
+                    key -> new Tenant(key, properties.tierNameOf(guildId)));
+            ticket = new Ticket(tenant, priority, pipeline, onShed);
+
+            if (tenant.queued == 0 && canStart(tenant, limits)) {
+                occupy(tenant);
+                start = true;
+            } else if (tenant.queued < tenant.tier.getQueueCapacity()) {
+                if (queued >= limits.ingressQueueCapacity()) {
+                    evicted = evictFor(tenant, priority);
+                }
+                if (queued < limits.ingressQueueCapacity()) {
+                    enqueue(ticket);
+                } else {
+                    shed = true;
+                }
+            } else if (priority == Priority.HIGH && !tenant.queue(Priority.NORMAL).isEmpty()) {
+                // Coda del server piena: la prioritaria prende il posto della sua ultima richiesta normale
+                evicted = dequeueLast(tenant, Priority.NORMAL);
+                enqueue(ticket);
+            } else {
+                shed = true;
+            }
+            if (shed) {
+                discardIfIdle(tenant);
+            }
+        }
+
+        if (evicted != null) {
+            shed(evicted, "evicted");
+        }
+        if (shed) {
+            shed(ticket, "shed");
+        } else if (start) {
+            start(ticket);
+        } else {
+            saturation(ticket.tenant, "queued").increment();
+        }
+        return ticket;
+    }
+
+    /**
+     * Un server può avviare una pipeline se c'è uno slot globale, non ha raggiunto il tetto del livello
+     * e resta nella quota garantita oppure prende in prestito uno slot fuori dalla riserva
+     */
+    private boolean canStart(Tenant tenant, PerformanceSettings limits) {
+        int max = limits.ingressMaxConcurrency();
+        int cap = tenant.tier.getMaxConcurrency();
+        if (running >= max || (cap > 0 && tenant.running >= cap)) {
+            return false;
+        }
+        return tenant.running < tenant.tier.getConcurrency() || running < max - properties.getReserve();
+    }
+
+    /**
+     * Libera un posto in coda a spese del server con più richieste in attesa, se ne ha più del richiedente;
+     * altrimenti una prioritaria sostituisce l'ultima richiesta normale del proprio server
+     */
+    private Ticket evictFor(Tenant requester, Priority priority) {
+        Tenant victim = null;
+        for (Tenant tenant : tenants.values()) {
+            if (tenant != requester && tenant.queued > requester.queued
+                    && (victim == null || tenant.queued > victim.queued)) {
+                victim = tenant;
+            }
+        }
+        if (victim != null) {
+            // Il più recente in attesa è quello che ha investito meno tempo
+            Ticket evicted = dequeueLast(victim, Priority.NORMAL);
+            if (evicted == null && priority == Priority.HIGH) {
+                evicted = dequeueLast(victim, Priority.HIGH);
+            }
+            if (evicted != null) {
+                discardIfIdle(victim);
+                return evicted;
+            }
+        }
+        return priority == Priority.HIGH ? dequeueLast(requester, Priority.NORMAL) : null;
+    }
+
+    private void enqueue(Ticket ticket) {
+        ticket.tenant.queue(ticket.priority).addLast(ticket);
+        ticket.tenant.queued++;
+        queued++;
+    }
+
+    private Ticket dequeueLast(Tenant tenant, Priority priority) {
+        Ticket ticket = tenant.queue(priority).pollLast();
+        if (ticket != null) {
+            tenant.queued--;
+            queued--;
+        }
+        return ticket;
+    }
+
+    private void occupy(Tenant tenant) {
+        running++;
+        tenant.running++;
+        if (tenant.running > tenant.tier.getConcurrency()) {
+            borrowedCounters.computeIfAbsent(tenant.tierName, tier -> Counter.builder("discord.ingress.borrowed")
+                    .description("Pipeline avviate oltre la quota garantita del server")
+                    .tag("tier", tier)
+                    .register(meterRegistry))
+                .increment();
+        }
+    }
+
+    private void start(Ticket ticket) {
+        waitTimers.get(ticket.priority).record(System.nanoTime() - ticket.enqueuedAt, TimeUnit.NANOSECONDS);
+        ticket.subscription.update(ticket.pipeline
+                .doFinally(signalType -> release(ticket.tenant))
+                .subscribe(value -> { }, error -> logger.warn("Errore non gestito nella pipeline", error)));
+    }
+
+    private void release(Tenant tenant) {
+        List<Ticket> next;
+        synchronized (this) {
+            running--;
+            tenant.running--;
+            next = drain();
+            discardIfIdle(tenant);
+        }
+        next.forEach(this::start);
+    }
+
+    private void rebalance() {
+        List<Ticket> next;
+        synchronized (this) {
+            next = drain();
+        }
+        next.forEach(this::start);
+    }
+
+    /**
+     * Occupa tutti gli slot liberi con le richieste in attesa, con un'unica lettura dei limiti
+     */
+    private List<Ticket> drain() {
+        PerformanceSettings limits = runtimeSettings.current();
+        List<Ticket> next = new ArrayList<>();
+        Ticket ticket;
+        while ((ticket = poll(limits)) != null) {
+            next.add(ticket);
+        }
+        return next;
+    }
+
+    /**
+     * Sceglie la prossima richiesta avviabile: prioritarie prima, poi server sotto quota,
+     * poi il minor rapporto tra pipeline attive e peso, a parità la richiesta in attesa da più tempo
+     */
+    private Ticket poll(PerformanceSettings limits) {
+        for (Priority priority : Priority.values()) {
+            Tenant best = null;
+            for (Tenant tenant : tenants.values()) {
+                if (!tenant.queue(priority).isEmpty() && canStart(tenant, limits)
+                        && (best == null || tenant.precedes(best, priority))) {
+                    best = tenant;
+                }
+            }
+            if (best != null) {
+                Ticket ticket = best.queue(priority).pollFirst();
+                best.queued--;
+                queued--;
+                occupy(best);
+                return ticket;
+            }
+        }
+        return null;
+    }
+
+    private void shed(Ticket ticket, String result) {
+        shedCounters.get(ticket.priority).increment();
+        saturation(ticket.tenant, result).increment();
+        logger.warn("Richiesta scartata dallo stadio di ingresso (server {}, livello {}, priorità {}, attive {}, in coda {})",
+                   ticket.tenant.key, ticket.tenant.tierName, ticket.priority, active(), queued());
+        ticket.onShed.run();
+    }
+
+    /**
+     * Contatori per livello ed esito: le serie sono limitate dai livelli configurati, non dal numero di server.
+     * Il server saturo compare nel log degli scarti.
+     */
+    private Counter saturation(Tenant tenant, String result) {
+        return saturationCounters.computeIfAbsent(tenant.tierName + ":" + result, k -> Counter.builder("discord.ingress.saturation")
+                .description("Richieste accodate, scartate o sostituite per saturazione della quota del server")
+                .tag("tier", tenant.tierName)
+                .tag("result", result)
+                .register(meterRegistry));
+    }
+
+    private void discardIfIdle(Tenant tenant) {
+        if (tenant.running == 0 && tenant.queued == 0) {
+            tenants.remove(tenant.key, tenant);
+        }
+    }
+
+    private synchronized void remove(Ticket ticket) {
+        if (ticket.tenant.queue(ticket.priority).remove(ticket)) {
+            ticket.tenant.queued--;
+            queued--;
+            discardIfIdle(ticket.tenant);
+        }
+    }
+
+    private synchronized int depth(Priority priority) {
+        int depth = 0;
+        for (Tenant tenant : tenants.values()) {
+            depth += tenant.queue(priority).size();
+        }
+        return depth;
+    }
+
+    private synchronized int tierActive(String tier) {
+        int active = 0;
+        for (Tenant tenant : tenants.values()) {
+            if (tenant.tierName.equals(tier)) {
+                active += tenant.running;
+            }
+        }
+        return active;
+    }
+
+    private synchronized int tierQueued(String tier) {
+        int waiting = 0;
+        for (Tenant tenant : tenants.values()) {
+            if (tenant.tierName.equals(tier)) {
+                waiting += tenant.queued;
+            }
+        }
+        return waiting;
+    }
+
+    private synchronized int active() {
+        return running;
+    }
+
+    private synchronized int queued() {
+        return queued;
+    }
+
+    /**
+     * Compartimento di un server: code per priorità e pipeline in esecuzione, esiste solo finché ha lavoro
+     */
+    private final class Tenant {
+
+        private final String key;
+        private final String tierName;
+        private final IngressProperties.Tier tier;
+        private final Map<Priority, Deque<Ticket>> queues = new EnumMap<>(Priority.class);
+        private int running;
+        private int queued;
+
+        Tenant(String key, String tierName) {
+            this.key = key;
+            this.tierName = tierName;
+            this.tier = properties.tier(tierName);
+            for (Priority priority : Priority.values()) {
+                queues.put(priority, new ArrayDeque<>());
+            }
+        }
+
+        Deque<Ticket> queue(Priority priority) {
+            return queues.get(priority);
+        }
+
+        boolean precedes(Tenant other, Priority priority) {
+            boolean underSlice = running < tier.getConcurrency();
+            if (underSlice != other.running < other.tier.getConcurrency()) {
+                return underSlice;
+            }
+            // running / weight confrontati senza divisione
+            long share = (long) running * other.tier.getWeight();
+            long otherShare = (long) other.running * tier.getWeight();
+            if (share != otherShare) {
+                return share < otherShare;
+            }
+            return queue(priority).peekFirst().enqueuedAt < other.queue(priority).peekFirst().enqueuedAt;
+        }
+    }
+
+    /**
+     * Richiesta accodata: annullarla la toglie dalla coda o interrompe la sottoscrizione in corso
+     */
+    private final class Ticket implements Disposable {
+
+        private final Tenant tenant;
+        private final Priority priority;
+        private final Mono<?> pipeline;
+        private final Runnable onShed;
+        private final long enqueuedAt = System.nanoTime();
+        private final Disposable.Swap subscription = Disposables.swap();
+
+        Ticket(Tenant tenant, Priority priority, Mono<?> pipeline, Runnable onShed) {
+            this.tenant = tenant;
+            this.priority = priority;
+            this.pipeline = pipeline;
+            this.onShed = onShed;
+        }
+
+        @Override
+        public void dispose() {
+            remove(this);
+            subscription.dispose();
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return subscription.isDisposed();
+        }
+    }
+}
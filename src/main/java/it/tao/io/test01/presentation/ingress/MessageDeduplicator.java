@@ -0,0 +1,166 @@
+package it.tao.io.test01.presentation.ingress;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.tao.io.test01.config.IdempotencyProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Riconosce gli eventi già elaborati, per ID del messaggio Discord, prima di qualsiasi lavoro.
+ * Gli ID più recenti sono conservati esattamente in una LRU; su un orizzonte più lungo due generazioni
+ * di filtri di Bloom che ruotano a ogni finestra ricordano gli ID in poche centinaia di KB.
+ * Un falso positivo del filtro scarta un messaggio nuovo: la probabilità è configurabile e molto bassa.
+ * Oltre l'orizzonte in memoria (riavvio, più istanze) interviene l'indice univoco su MongoDB.
+ */
+@Component
+public class MessageDeduplicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageDeduplicator.class);
+
+    private final IdempotencyProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Counter> duplicates = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Boolean> recent;
+
+    private BloomFilter current;
+    private BloomFilter previous;
+    private long generationStart = System.nanoTime();
+
+    public MessageDeduplicator(IdempotencyProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        int capacity = properties.getRecentCapacity();
+        this.recent = new LinkedHashMap<>(Math.min(capacity, 1024), 0.75f) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.current = newFilter();
+        this.previous = newFilter();
+    }
+
+    /**
+     * Registra l'ID e restituisce true alla prima consegna, false se l'evento è già stato visto
+     */
+    public boolean firstDelivery(String messageId) {
+        if (!properties.isEnabled()) {
+            return true;
+        }
+        String source;
+        synchronized (this) {
+            rotateIfNeeded();
+            long hash = hash(messageId);
+            if (recent.containsKey(messageId)) {
+                source = "memory";
+            } else if (current.mightContain(hash) || previous.mightContain(hash)) {
+                source = "bloom";
+            } else {
+                recent.put(messageId, Boolean.TRUE);
+                current.put(hash);
+                return true;
+            }
+        }
+        recordDuplicate(source);
+        logger.info("Evento duplicato ignorato - Messaggio: {} ({})", messageId, source);
+        return false;
+    }
+
+    /**
+     * Conta un duplicato riconosciuto altrove (es. dall'indice univoco sul salvataggio)
+     */
+    public void recordDuplicate(String source) {
+        duplicates.computeIfAbsent(source, s -> Counter.builder("discord.ingress.duplicates")
+                .description("Eventi Discord duplicati soppressi")
+                .tag("source", s)
+                .register(meterRegistry))
+            .increment();
+    }
+
+    private void rotateIfNeeded() {
+        long now = System.nanoTime();
+        long window = properties.getWindow().toNanos();
+        if (now - generationStart < window) {
+            return;
+        }
+        // Dopo due finestre di inattività anche la generazione precedente è scaduta
+        previous = now - generationStart < 2 * window ? current : newFilter();
+        current = newFilter();
+        generationStart = now;
+    }
+
+    private BloomFilter newFilter() {
+        return BloomFilter.create(properties.getExpectedPerWindow(), properties.getFalsePositiveRate());
+    }
+
+    /**
+     * Hash a 64 bit dell'ID (FNV-1a con rimescolamento finale), da cui derivano tutte le posizioni nel filtro
+     */
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Filtro di Bloom su array di long con doppio hashing (Kirsch-Mitzenmacher)
+     */
+    private static final class BloomFilter {
+
+        private final long[] bits;
+        private final long size;
+        private final int hashes;
+
+        private BloomFilter(long size, int hashes) {
+            this.bits = new long[(int) ((size + 63) / 64)];
+            this.size = size;
+            this.hashes = hashes;
+        }
+
+        static BloomFilter create(int expected, double falsePositiveRate) {
+            double ln2 = Math.log(2);
+            long size = Math.max(64, (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (ln2 * ln2)));
+            int hashes = Math.max(1, (int) Math.round((double) size / expected * ln2));
+            return new BloomFilter(size, hashes);
+        }
+
+        void put(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashes; i++) {
+                long bit = index(h1 + i * h2);
+                bits[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        boolean mightContain(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashes; i++) {
+                long bit = index(h1 + i * h2);
+                if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long index(int combined) {
+            return (combined & Integer.MAX_VALUE) % size;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package it.tao.io.test01.presentation.listener;
+
+import it.tao.io.test01.application.service.ChatBotApplicationService;
+import it.tao.io.test01.config.ConversationProperties;
+import it.tao.io.test01.domain.model.ConversationKey;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageReference;
+import net.dv8tion.jda.api.entities.MessageType;
+import net.dv8tion.jda.api.entities.channel.concrete.ThreadChannel;
+import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Determina la conversazione a cui appartiene un messaggio secondo l'ambito configurato per il canale.
+ * Nelle catene di risposte la conversazione si ricava dal messaggio a cui si risponde: una risposta del bot
+ * ricordata in memoria, il messaggio utente che il bot aveva citato o un messaggio già salvato;
+ * altrimenti il messaggio citato diventa la radice di una nuova conversazione.
+ */
+@Component
+public class ConversationScopeResolver {
+
+    private final ConversationProperties properties;
+    private final ChatBotApplicationService chatBotService;
+    private final LinkedHashMap<String, ConversationKey> replies;
+
+    public ConversationScopeResolver(ConversationProperties properties, ChatBotApplicationService chatBotService) {
+        this.properties = properties;
+        this.chatBotService = chatBotService;
+        int capacity = properties.getReplyMemory();
+        this.replies = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ConversationKey> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Ambito del canale: impostazione del canale, poi del canale padre per i thread, poi quella predefinita
+     */
+    public ConversationProperties.Scope scopeOf(MessageChannel channel) {
+        Map<String, ConversationProperties.Scope> channels = properties.getChannels();
+        ConversationProperties.Scope scope = channels.get(channel.getId());
+        if (scope == null && channel instanceof ThreadChannel thread) {
+            scope = channels.get(thread.getParentChannel().getId());
+        }
+        return scope != null ? scope : properties.getScope();
+    }
+
+    /**
+     * Conversazione di un messaggio che menziona il bot
+     */
+    public Mono<ConversationKey> resolve(Message message) {
+        String channelId = message.getChannel().getId();
+        return switch (scopeOf(message.getChannel())) {
+            case CHANNEL -> Mono.just(ConversationKey.channel(channelId));
+            case USER -> Mono.just(ConversationKey.user(channelId, message.getAuthor().getId()));
+            case REPLY_CHAIN -> resolveReplyChain(message, channelId);
+        };
+    }
+
+    /**
+     * Conversazione di un comando slash: senza messaggio citato, nelle catene di risposte apre una nuova conversazione
+     */
+    public ConversationKey resolveInteraction(MessageChannel channel, String userId, String interactionId) {
+        return switch (scopeOf(channel)) {
+            case CHANNEL -> ConversationKey.channel(channel.getId());
+            case USER -> ConversationKey.user(channel.getId(), userId);
+            case REPLY_CHAIN -> ConversationKey.replyChain(channel.getId(), interactionId);
+        };
+    }
+
+    /**
+     * Conversazione in cui un utente sta scrivendo, se determinabile prima del messaggio (non per le catene di risposte)
+     */
+    public Optional<ConversationKey> resolveTyping(MessageChannel channel, String userId) {
+        return switch (scopeOf(channel)) {
+            case CHANNEL -> Optional.of(ConversationKey.channel(channel.getId()));
+            case USER -> Optional.of(ConversationKey.user(channel.getId(), userId));
+            case REPLY_CHAIN -> Optional.empty();
+        };
+    }
+
+    /**
+     * Ricorda un messaggio inviato dal bot, così una risposta a quel messaggio prosegue la stessa conversazione
+     */
+    public void rememberReply(String botMessageId, ConversationKey conversation) {
+        if (!conversation.isScoped()) {
+            return;
+        }
+        synchronized (replies) {
+            replies.put(botMessageId, conversation);
+        }
+    }
+
+    private Mono<ConversationKey> resolveReplyChain(Message message, String channelId) {
+        MessageReference reference = message.getMessageReference();
+        if (reference == null || message.getType() != MessageType.INLINE_REPLY) {
+            return Mono.just(ConversationKey.replyChain(channelId, message.getId()));
+        }
+        String referencedId = reference.getMessageId();
+
+        ConversationKey remembered;
+        synchronized (replies) {
+            remembered = replies.get(referencedId);
+        }
+        if (remembered != null) {
+            return Mono.just(remembered);
+        }
+
+        // Risposta a un messaggio del bot non più in memoria: il bot cita il messaggio utente a cui ha risposto
+        Message referenced = message.getReferencedMessage();
+        String selfId = message.getJDA().getSelfUser().getId();
+        String quotedByBot = referenced != null && referenced.getAuthor().getId().equals(selfId)
+                && referenced.getMessageReference() != null
+                ? referenced.getMessageReference().getMessageId()
+                : null;
+
+        Mono<ConversationKey> viaBotReply = quotedByBot != null
+                ? Mono.defer(() -> chatBotService.findConversation(channelId, quotedByBot))
+                : Mono.empty();
+        return viaBotReply
+                .switchIfEmpty(Mono.defer(() -> chatBotService.findConversation(channelId, referencedId)))
+                .filter(ConversationKey::isScoped)
+                .defaultIfEmpty(ConversationKey.replyChain(channelId, referencedId));
+    }
+}
@@ -1,18 +1,44 @@
 package it.tao.io.test01.presentation.listener;
 
 import it.tao.io.test01.application.service.ChatBotApplicationService;
+import it.tao.io.test01.application.service.InFlightRequestRegistry;
+import it.tao.io.test01.config.DeadlineProperties;
+import it.tao.io.test01.config.IngressProperties;
+import it.tao.io.test01.config.LoggingContextConfiguration;
+import it.tao.io.test01.domain.model.ConversationKey;
+import it.tao.io.test01.domain.service.DuplicateMessageException;
+import it.tao.io.test01.infrastructure.deadline.RequestDeadline;
+import it.tao.io.test01.infrastructure.logging.ContentLogPolicy;
+import it.tao.io.test01.infrastructure.settings.PerformanceSettings;
+import it.tao.io.test01.infrastructure.settings.RuntimeSettings;
+import it.tao.io.test01.presentation.formatter.DiscordMessageSplitter;
+import it.tao.io.test01.presentation.formatter.ErrorReplyFormatter;
+import it.tao.io.test01.presentation.ingress.IngressRateLimiter;
+import it.tao.io.test01.presentation.ingress.IngressScheduler;
+import it.tao.io.test01.presentation.ingress.MessageDeduplicator;
+import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.entities.emoji.Emoji;
+import net.dv8tion.jda.api.events.message.MessageDeleteEvent;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.MessageUpdateEvent;
+import net.dv8tion.jda.api.events.user.UserTypingEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import net.dv8tion.jda.api.requests.RestAction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -26,60 +52,181 @@ import java.util.concurrent.TimeUnit;
 public class DiscordMessageListener extends ListenerAdapter {
 
     private static final Logger logger = LoggerFactory.getLogger(DiscordMessageListener.class);
-    private static final int DISCORD_MESSAGE_LIMIT = 2000;
 
     private final ChatBotApplicationService chatBotService;
-
-    public DiscordMessageListener(ChatBotApplicationService chatBotService) {
+    private final ContentLogPolicy contentLogPolicy;
+    private final DiscordMessageSplitter messageSplitter;
+    private final ErrorReplyFormatter errorReplyFormatter;
+    private final IngressRateLimiter rateLimiter;
+    private final InFlightRequestRegistry inFlightRequests;
+    private final DeadlineProperties deadlineProperties;
+    private final IngressScheduler ingressScheduler;
+    private final IngressProperties ingressProperties;
+    private final MessageDeduplicator deduplicator;
+    private final ConversationScopeResolver scopeResolver;
+    private final RuntimeSettings runtimeSettings;
+
+    @Value("${chatbot.inflight.reissue-on-edit:true}")
+    private boolean reissueOnEdit;
+
+    public DiscordMessageListener(ChatBotApplicationService chatBotService,
+                                  ContentLogPolicy contentLogPolicy,
+                                  DiscordMessageSplitter messageSplitter,
+                                  ErrorReplyFormatter errorReplyFormatter,
+                                  IngressRateLimiter rateLimiter,
+                                  InFlightRequestRegistry inFlightRequests,
+                                  DeadlineProperties deadlineProperties,
+                                  IngressScheduler ingressScheduler,
+                                  IngressProperties ingressProperties,
+                                  MessageDeduplicator deduplicator,
+                                  ConversationScopeResolver scopeResolver,
+                                  RuntimeSettings runtimeSettings) {
         this.chatBotService = chatBotService;
+        this.contentLogPolicy = contentLogPolicy;
+        this.messageSplitter = messageSplitter;
+        this.errorReplyFormatter = errorReplyFormatter;
+        this.rateLimiter = rateLimiter;
+        this.inFlightRequests = inFlightRequests;
+        this.deadlineProperties = deadlineProperties;
+        this.ingressScheduler = ingressScheduler;
+        this.ingressProperties = ingressProperties;
+        this.deduplicator = deduplicator;
+        this.scopeResolver = scopeResolver;
+        this.runtimeSettings = runtimeSettings;
         logger.info("DiscordMessageListener inizializzato con architettura a layer");
     }
 
     @Override
     public void onMessageReceived(MessageReceivedEvent event) {
-        if (event.getAuthor().isBot()) {
+        if (event.getAuthor().isBot() || !inFlightRequests.isRunning()) {
             return;
         }
 
         User selfUser = event.getJDA().getSelfUser();
         String selfId = selfUser.getId();
-        String rawContent = event.getMessage().getContentRaw();
+        Message message = event.getMessage();
+        String rawContent = message.getContentRaw();
         String channelId = event.getChannel().getId();
         String userId = event.getAuthor().getId();
         String username = event.getAuthor().getName();
 
         // Imposta il contesto MDC per il logging
-        MDC.put("channelId", channelId);
-        MDC.put("userId", userId);
+        MDC.put(LoggingContextConfiguration.CHANNEL_ID, channelId);
+        MDC.put(LoggingContextConfiguration.USER_ID, userId);
 
         try {
-            logger.debug("Messaggio ricevuto - Canale: {}, Utente: {} ({}), Contenuto: {}",
-                        channelId, username, userId, rawContent);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Messaggio ricevuto - Canale: {}, Utente: {} ({}), Contenuto: {}",
+                            channelId, username, userId, contentLogPolicy.describe(rawContent));
+            }
+
+            if (isBotMentioned(message, selfUser, selfId, rawContent)) {
+                // Dopo un resume del gateway lo stesso evento può arrivare di nuovo: nessun lavoro né quota consumata
+                if (!deduplicator.firstDelivery(message.getId())) {
+                    return;
+                }
+
+                String guildId = message.isFromGuild() ? message.getGuild().getId() : null;
+                Optional<IngressRateLimiter.Scope> limited = rateLimiter.tryAcquire(userId, channelId, guildId);
+                if (limited.isPresent()) {
+                    // Risposta leggera: una reazione non genera testo nel canale né chiamate al modello
+                    logger.info("Limite {} superato - Canale: {}, utente: {}", limited.get(), channelId, username);
+                    message.addReaction(Emoji.fromUnicode("⏳")).queue(null, error -> { });
+                    return;
+                }
 
-            if (isBotMentioned(event, selfUser, selfId, rawContent)) {
                 logger.info("Bot menzionato - Elaborazione messaggio per canale: {}, utente: {}", channelId, username);
-                processMessage(event, channelId);
+                processMessage(message, channelId, message.getId(), false);
             }
         } finally {
-            MDC.remove("channelId");
-            MDC.remove("userId");
+            MDC.remove(LoggingContextConfiguration.CHANNEL_ID);
+            MDC.remove(LoggingContextConfiguration.USER_ID);
+        }
+    }
+
+    @Override
+    public void onUserTyping(UserTypingEvent event) {
+        // Il messaggio arriverà tra qualche secondo: la cronologia del canale può essere caricata nel frattempo
+        if (event.getUser().isBot() || !inFlightRequests.isRunning()) {
+            return;
+        }
+        scopeResolver.resolveTyping(event.getChannel(), event.getUser().getId())
+            .ifPresent(chatBotService::prefetchContext);
+    }
+
+    @Override
+    public void onMessageDelete(MessageDeleteEvent event) {
+        // Il messaggio che ha originato la richiesta non esiste più: la risposta non serve
+        inFlightRequests.cancel(event.getMessageId(), "deleted");
+    }
+
+    @Override
+    public void onMessageUpdate(MessageUpdateEvent event) {
+        Message message = event.getMessage();
+        if (!inFlightRequests.isInFlight(message.getId())) {
+            return;
+        }
+
+        String channelId = event.getChannel().getId();
+        String userId = event.getAuthor().getId();
+        MDC.put(LoggingContextConfiguration.CHANNEL_ID, channelId);
+        MDC.put(LoggingContextConfiguration.USER_ID, userId);
+
+        try {
+            User selfUser = event.getJDA().getSelfUser();
+            if (!reissueOnEdit || !isBotMentioned(message, selfUser, selfUser.getId(), message.getContentRaw())) {
+                cancelEdited(message, channelId);
+                return;
+            }
+
+            // Stesso percorso di un messaggio nuovo: una modifica riconsegnata non riparte e ogni modifica consuma quota
+            String sourceMessageId = editedSourceId(message);
+            if (!deduplicator.firstDelivery(sourceMessageId)) {
+                return;
+            }
+            String guildId = message.isFromGuild() ? message.getGuild().getId() : null;
+            Optional<IngressRateLimiter.Scope> limited = rateLimiter.tryAcquire(userId, channelId, guildId);
+            if (limited.isPresent()) {
+                logger.info("Limite {} superato su modifica - Canale: {}, utente: {}", limited.get(), channelId, userId);
+                cancelEdited(message, channelId);
+                message.addReaction(Emoji.fromUnicode("⏳")).queue(null, error -> { });
+                return;
+            }
+
+            // La nuova richiesta sostituisce quella in corso per lo stesso messaggio, che viene annullata
+            logger.info("Messaggio modificato durante l'elaborazione - Nuova richiesta per canale: {}", channelId);
+            processMessage(message, channelId, sourceMessageId, true);
+        } finally {
+            MDC.remove(LoggingContextConfiguration.CHANNEL_ID);
+            MDC.remove(LoggingContextConfiguration.USER_ID);
+        }
+    }
+
+    /**
+     * Annulla la richiesta del messaggio modificato e toglie dalla cronologia il testo superato, rimasto senza risposta
+     */
+    private void cancelEdited(Message message, String channelId) {
+        if (inFlightRequests.cancel(message.getId(), "edited")) {
+            chatBotService.discardMessageVersions(channelId, message.getId())
+                .subscribe(null, error -> logger.warn("Rimozione del messaggio modificato non riuscita - Canale: {}",
+                                                      channelId, error));
         }
     }
 
-    private boolean isBotMentioned(MessageReceivedEvent event, User selfUser, String selfId, String rawContent) {
+    private boolean isBotMentioned(Message message, User selfUser, String selfId, String rawContent) {
         // Controlla se il bot è stato menzionato direttamente
         boolean isMentioned = rawContent.contains("<@" + selfId + ">") || rawContent.contains("<@!" + selfId + ">");
 
         // Se non è menzionato direttamente e il messaggio proviene da un server,
         // controlla se è stato menzionato tramite un ruolo.
-        if (!isMentioned && event.isFromGuild()) {
-            Member selfMember = event.getGuild().getMember(selfUser);
+        if (!isMentioned && message.isFromGuild()) {
+            Member selfMember = message.getGuild().getMember(selfUser);
             if (selfMember != null) {
                 List<Role> botRoles = selfMember.getRoles();
-                List<Role> mentionedRoles = event.getMessage().getMentions().getRoles();
+                List<Role> mentionedRoles = message.getMentions().getRoles();
                 if (!java.util.Collections.disjoint(botRoles, mentionedRoles)) {
                     isMentioned = true;
-                    logger.debug("Bot menzionato tramite ruolo nel canale: {}", event.getChannel().getId());
+                    logger.debug("Bot menzionato tramite ruolo nel canale: {}", message.getChannel().getId());
                 }
             }
         }
@@ -87,46 +234,118 @@ public class DiscordMessageListener extends ListenerAdapter {
         return isMentioned;
     }
 
-    @SuppressWarnings("resource")
-    private void processMessage(MessageReceivedEvent event, String channelId) {
-        // Mostra l'indicatore "sta scrivendo..." nel canale
-        event.getChannel().sendTyping().queue();
+    /**
+     * Chiave di origine di una nuova richiesta da messaggio modificato: distinta per ogni versione del messaggio
+     */
+    private String editedSourceId(Message message) {
+        return message.getTimeEdited() != null
+            ? message.getId() + ":" + message.getTimeEdited().toInstant().toEpochMilli()
+            : message.getId();
+    }
 
+    @SuppressWarnings("resource")
+    private void processMessage(Message message, String channelId, String sourceMessageId, boolean edited) {
         // Pulisce il messaggio rimuovendo le menzioni
-        String cleanMessage = cleanMessage(event.getMessage().getContentRaw());
+        String cleanMessage = cleanMessage(message.getContentRaw());
 
         if (cleanMessage.isEmpty()) {
             logger.warn("Messaggio vuoto dopo rimozione menzioni - Canale: {}", channelId);
             return;
         }
 
-        logger.debug("Messaggio pulito: {}", cleanMessage);
-
-        // Mantiene l'indicatore "sta scrivendo..." attivo durante l'elaborazione
-        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-        ScheduledFuture<?> typingIndicator = executor.scheduleAtFixedRate(
-                () -> event.getChannel().sendTyping().queue(),
-                0, 8, TimeUnit.SECONDS);
-
-        // Delega la logica di business all'Application Service
-        chatBotService.processUserMessage(channelId, cleanMessage)
-            .doFinally(signalType -> {
-                // Ferma l'indicatore "sta scrivendo..." e l'executor
-                typingIndicator.cancel(false);
-                executor.shutdown();
-                logger.debug("Indicatore 'sta scrivendo' fermato e executor spento per il canale: {}", channelId);
-            })
-            .subscribe(
-                botResponse -> {
-                    logger.info("Risposta ricevuta per canale: {}, lunghezza: {} caratteri",
-                               channelId, botResponse.length());
-                    sendLongMessage(event, botResponse);
-                },
-                error -> {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Messaggio pulito: {}", contentLogPolicy.describe(cleanMessage));
+        }
+
+        String guildId = message.isFromGuild() ? message.getGuild().getId() : null;
+
+        // Traccia la richiesta per poterla annullare se il messaggio viene eliminato o modificato
+        InFlightRequestRegistry.InFlightRequest inFlight = inFlightRequests.start(message.getId(), channelId);
+
+        // Budget di tempo end-to-end, condiviso da attesa in coda, persistenza, OpenRouter e invio su Discord
+        PerformanceSettings settings = runtimeSettings.resolve(guildId, channelId);
+        RequestDeadline deadline = deadlineProperties.isEnabled()
+                ? RequestDeadline.after(message.isFromGuild() ? settings.deadlines().guild() : settings.deadlines().direct())
+                : null;
+        Context context = Context.of(LoggingContextConfiguration.CHANNEL_ID, channelId,
+                                     LoggingContextConfiguration.USER_ID, message.getAuthor().getId(),
+                                     InFlightRequestRegistry.CONTEXT_KEY, inFlight);
+        if (deadline != null) {
+            context = context.put(RequestDeadline.CONTEXT_KEY, deadline);
+        }
+        if (guildId != null) {
+            context = context.put(RuntimeSettings.GUILD_ID, guildId);
+        }
+        long typingIntervalMs = settings.typingInterval().toMillis();
+
+        // La pipeline parte solo quando lo stadio di ingresso le assegna uno slot
+        Mono<String> pipeline = Mono.defer(() -> {
+            // Mantiene l'indicatore "sta scrivendo..." attivo durante l'elaborazione
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+            ScheduledFuture<?> typingIndicator = executor.scheduleAtFixedRate(
+                    () -> message.getChannel().sendTyping().queue(),
+                    0, typingIntervalMs, TimeUnit.MILLISECONDS);
+
+            // Delega la logica di business all'Application Service, nella conversazione del messaggio
+            return RequestDeadline.within("store.conversation", scopeResolver.resolve(message))
+                .flatMap(conversation -> (edited
+                        ? chatBotService.processEditedMessage(conversation, cleanMessage, message.getId(), sourceMessageId)
+                        : chatBotService.processUserMessage(conversation, cleanMessage, sourceMessageId))
+                    .doOnNext(botResponse -> {
+                        logger.info("Risposta ricevuta per conversazione: {}, lunghezza: {} caratteri",
+                                   conversation.indexKey(), botResponse.length());
+                        sendLongMessage(message, botResponse, deadline, conversation);
+                    }))
+                .doOnError(error -> {
+                    if (error instanceof DuplicateMessageException) {
+                        // Già salvato da un'elaborazione precedente (o da un'altra istanza): nessuna seconda risposta
+                        deduplicator.recordDuplicate("store");
+                        logger.info("Evento duplicato ignorato - Messaggio: {} (store)", sourceMessageId);
+                        return;
+                    }
                     logger.error("Errore durante l'elaborazione messaggio - Canale: {}", channelId, error);
-                    handleError(event, error, channelId);
-                }
-            );
+                    handleError(message, error, channelId);
+                })
+                .doFinally(signalType -> {
+                    // Ferma l'indicatore "sta scrivendo..." e l'executor
+                    typingIndicator.cancel(false);
+                    executor.shutdown();
+                    logger.debug("Indicatore 'sta scrivendo' fermato e executor spento per il canale: {} ({})",
+                                channelId, signalType);
+                });
+        })
+            .doFinally(signalType -> inFlightRequests.finish(inFlight))
+            // Il Context di Reactor porta channelId/userId nell'MDC su ogni thread della pipeline (callback incluse)
+            .contextWrite(context)
+            .onErrorResume(error -> Mono.empty()); // già gestito in doOnError
+
+        Disposable subscription = ingressScheduler.submit(guildId, priorityOf(message), pipeline, () -> {
+            inFlightRequests.finish(inFlight);
+            shed(message);
+        });
+        inFlightRequests.track(inFlight, subscription);
+    }
+
+    /**
+     * Messaggi diretti e moderatori (permesso di gestione messaggi) hanno la precedenza nello stadio di ingresso
+     */
+    private IngressScheduler.Priority priorityOf(Message message) {
+        if (!message.isFromGuild()) {
+            return IngressScheduler.Priority.HIGH;
+        }
+        Member member = message.getMember();
+        if (member != null && member.hasPermission(message.getGuildChannel(), Permission.MESSAGE_MANAGE)) {
+            return IngressScheduler.Priority.HIGH;
+        }
+        return IngressScheduler.Priority.NORMAL;
+    }
+
+    private void shed(Message message) {
+        if (ingressProperties.getShedReply() == IngressProperties.ShedReply.MESSAGE) {
+            message.reply("🚦 Sono molto occupato in questo momento, riprova tra poco.").queue(null, error -> { });
+        } else {
+            message.addReaction(Emoji.fromUnicode("🚦")).queue(null, error -> { });
+        }
     }
 
     private String cleanMessage(String rawContent) {
@@ -136,67 +355,35 @@ public class DiscordMessageListener extends ListenerAdapter {
             .trim();
     }
 
-    private void handleError(MessageReceivedEvent event, Throwable error, String channelId) {
-        String userMessage;
-        String errorMsg = error.getMessage() != null ? error.getMessage() : "";
-
-        if (errorMsg.contains("temporaneamente non disponibile")) {
-            userMessage = "⚠️ Il servizio AI è temporaneamente non disponibile. Riprova tra qualche minuto.";
-            logger.warn("Servizio OpenRouter non disponibile - Canale: {}", channelId);
-        } else if (error.getCause() != null && error.getCause().getMessage() != null &&
-                  error.getCause().getMessage().contains("Failed to resolve")) {
-            userMessage = "🌐 Problema di connessione di rete. Riprova tra poco.";
-            logger.warn("Errore DNS per OpenRouter - Canale: {}", channelId);
-        } else {
-            userMessage = "🤖 Oops! Qualcosa è andato storto. Riprova tra poco.";
-        }
-
-        event.getChannel().sendMessage(userMessage).queue();
+    private void handleError(Message message, Throwable error, String channelId) {
+        message.getChannel().sendMessage(errorReplyFormatter.format(error, channelId)).queue();
     }
 
-    private void sendLongMessage(MessageReceivedEvent event, String message) {
-        logger.debug("Invio messaggio lungo. Lunghezza: {} caratteri", message.length());
+    private void sendLongMessage(Message message, String response, RequestDeadline deadline, ConversationKey conversation) {
+        logger.debug("Invio messaggio lungo. Lunghezza: {} caratteri", response.length());
 
-        if (message.length() <= DISCORD_MESSAGE_LIMIT) {
-            event.getChannel().sendMessage(message).queue();
-            logger.debug("Messaggio inviato direttamente (sotto il limite)");
-            return;
-        }
+        // Una risposta vuota non è inviabile su Discord: al suo posto va il testo di ripiego
+        String text = response.isBlank() ? errorReplyFormatter.emptyResponse(message.getChannel().getId()) : response;
 
-        // Divide il messaggio in parti più piccole
-        List<String> parts = splitLongMessage(message);
-        logger.info("Messaggio diviso in {} parti", parts.size());
+        // Divide il messaggio in parti più piccole se supera il limite
+        List<String> parts = messageSplitter.split(text);
+        if (parts.size() > 1) {
+            logger.info("Messaggio diviso in {} parti", parts.size());
+        }
 
         // Invia ogni parte come messaggio separato
         for (int i = 0; i < parts.size(); i++) {
-            event.getChannel().sendMessage(parts.get(i)).queue();
-            logger.debug("Parte {}/{} inviata", i + 1, parts.size());
-        }
-    }
-
-    private List<String> splitLongMessage(String message) {
-        List<String> parts = new ArrayList<>();
-        String remaining = message;
-
-        while (remaining.length() > DISCORD_MESSAGE_LIMIT) {
-            // Cerca un punto di interruzione naturale prima del limite
-            int breakPoint = DISCORD_MESSAGE_LIMIT;
-            for (int i = DISCORD_MESSAGE_LIMIT - 1; i > DISCORD_MESSAGE_LIMIT - 200; i--) {
-                char c = remaining.charAt(i);
-                if (c == ' ' || c == '\n' || c == '.' || c == ',' || c == ';' || c == '!' || c == '?') {
-                    breakPoint = i + 1;
-                    break;
-                }
+            // Nelle sotto-conversazioni la prima parte risponde al messaggio, così la catena resta visibile e proseguibile
+            RestAction<Message> send = i == 0 && conversation.isScoped()
+                ? message.reply(parts.get(i)).mentionRepliedUser(false)
+                : message.getChannel().sendMessage(parts.get(i));
+            if (deadline != null) {
+                // JDA scarta l'invio (anche se in coda per rate limit) oltre la scadenza della richiesta
+                send = send.deadline(deadline.epochMillis());
             }
-
-            parts.add(remaining.substring(0, breakPoint).trim());
-            remaining = remaining.substring(breakPoint);
-        }
-
-        if (!remaining.trim().isEmpty()) {
-            parts.add(remaining.trim());
+            send.queue(sent -> scopeResolver.rememberReply(sent.getId(), conversation),
+                       error -> logger.warn("Invio parte non riuscito - Canale: {}", message.getChannel().getId(), error));
+            logger.debug("Parte {}/{} inviata", i + 1, parts.size());
         }
-
-        return parts;
     }
 }
@@ -0,0 +1,266 @@
+package it.tao.io.test01.presentation.listener;
+
+import it.tao.io.test01.application.service.ChatBotApplicationService;
+import it.tao.io.test01.application.service.InFlightRequestRegistry;
+import it.tao.io.test01.config.DeadlineProperties;
+import it.tao.io.test01.config.LoggingContextConfiguration;
+import it.tao.io.test01.domain.model.ConversationKey;
+import it.tao.io.test01.domain.service.DuplicateMessageException;
+import it.tao.io.test01.infrastructure.deadline.RequestDeadline;
+import it.tao.io.test01.infrastructure.logging.ContentLogPolicy;
+import it.tao.io.test01.infrastructure.settings.RuntimeSettings;
+import it.tao.io.test01.presentation.formatter.DiscordMessageSplitter;
+import it.tao.io.test01.presentation.formatter.ErrorReplyFormatter;
+import it.tao.io.test01.presentation.ingress.IngressRateLimiter;
+import it.tao.io.test01.presentation.ingress.IngressScheduler;
+import it.tao.io.test01.presentation.ingress.MessageDeduplicator;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import net.dv8tion.jda.api.interactions.InteractionHook;
+import net.dv8tion.jda.api.interactions.commands.DefaultMemberPermissions;
+import net.dv8tion.jda.api.interactions.commands.OptionMapping;
+import net.dv8tion.jda.api.interactions.commands.OptionType;
+import net.dv8tion.jda.api.interactions.commands.build.CommandData;
+import net.dv8tion.jda.api.interactions.commands.build.Commands;
+import net.dv8tion.jda.api.requests.RestAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Presentation Layer - Listener per i comandi slash (/ask, /clear, /stats)
+ * Le interazioni non richiedono l'intent MESSAGE_CONTENT e vengono confermate subito con una risposta
+ * differita, che lascia fino a 15 minuti per completare l'elaborazione
+ */
+@Component
+public class SlashCommandListener extends ListenerAdapter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SlashCommandListener.class);
+
+    static final String ASK = "ask";
+    static final String CLEAR = "clear";
+    static final String STATS = "stats";
+    static final String QUESTION_OPTION = "domanda";
+
+    private final ChatBotApplicationService chatBotService;
+    private final ContentLogPolicy contentLogPolicy;
+    private final DiscordMessageSplitter messageSplitter;
+    private final ErrorReplyFormatter errorReplyFormatter;
+    private final IngressRateLimiter rateLimiter;
+    private final InFlightRequestRegistry inFlightRequests;
+    private final DeadlineProperties deadlineProperties;
+    private final RuntimeSettings runtimeSettings;
+    private final IngressScheduler ingressScheduler;
+    private final MessageDeduplicator deduplicator;
+    private final ConversationScopeResolver scopeResolver;
+
+    public SlashCommandListener(ChatBotApplicationService chatBotService,
+                                ContentLogPolicy contentLogPolicy,
+                                DiscordMessageSplitter messageSplitter,
+                                ErrorReplyFormatter errorReplyFormatter,
+                                IngressRateLimiter rateLimiter,
+                                InFlightRequestRegistry inFlightRequests,
+                                DeadlineProperties deadlineProperties,
+                                RuntimeSettings runtimeSettings,
+                                IngressScheduler ingressScheduler,
+                                MessageDeduplicator deduplicator,
+                                ConversationScopeResolver scopeResolver) {
+        this.chatBotService = chatBotService;
+        this.contentLogPolicy = contentLogPolicy;
+        this.messageSplitter = messageSplitter;
+        this.errorReplyFormatter = errorReplyFormatter;
+        this.rateLimiter = rateLimiter;
+        this.inFlightRequests = inFlightRequests;
+        this.deadlineProperties = deadlineProperties;
+        this.runtimeSettings = runtimeSettings;
+        this.ingressScheduler = ingressScheduler;
+        this.deduplicator = deduplicator;
+        this.scopeResolver = scopeResolver;
+    }
+
+    /**
+     * Definizioni dei comandi da registrare su Discord
+     */
+    public static List<CommandData> commands() {
+        return List.of(
+            Commands.slash(ASK, "Fai una domanda al bot")
+                .addOption(OptionType.STRING, QUESTION_OPTION, "Il testo della domanda", true),
+            Commands.slash(CLEAR, "Cancella la cronologia della conversazione nel canale")
+                .setDefaultPermissions(DefaultMemberPermissions.enabledFor(Permission.MESSAGE_MANAGE)),
+            Commands.slash(STATS, "Mostra le statistiche della conversazione nel canale")
+        );
+    }
+
+    @Override
+    public void onSlashCommandInteraction(SlashCommandInteractionEvent event) {
+        String channelId = event.getChannel().getId();
+        String userId = event.getUser().getId();
+
+        MDC.put(LoggingContextConfiguration.CHANNEL_ID, channelId);
+        MDC.put(LoggingContextConfiguration.USER_ID, userId);
+
+        try {
+            logger.debug("Comando /{} ricevuto - Canale: {}, Utente: {}", event.getName(), channelId, userId);
+
+            switch (event.getName()) {
+                case ASK -> handleAsk(event, channelId, userId);
+                case CLEAR -> handleClear(event, channelId, userId);
+                case STATS -> handleStats(event, channelId, userId);
+                default -> logger.warn("Comando slash sconosciuto: {}", event.getName());
+            }
+        } finally {
+            MDC.remove(LoggingContextConfiguration.CHANNEL_ID);
+            MDC.remove(LoggingContextConfiguration.USER_ID);
+        }
+    }
+
+    private void handleAsk(SlashCommandInteractionEvent event, String channelId, String userId) {
+        String question = event.getOption(QUESTION_OPTION, "", OptionMapping::getAsString).trim();
+        if (question.isEmpty()) {
+            event.reply("La domanda non può essere vuota.").setEphemeral(true).queue();
+            return;
+        }
+
+        // Un'interazione riconsegnata è già stata confermata dalla prima elaborazione: va solo ignorata
+        if (!deduplicator.firstDelivery(event.getId())) {
+            return;
+        }
+
+        String guildId = event.getGuild() != null ? event.getGuild().getId() : null;
+        Optional<IngressRateLimiter.Scope> limited = rateLimiter.tryAcquire(userId, channelId, guildId);
+        if (limited.isPresent()) {
+            logger.info("Limite {} superato - Canale: {}, utente: {}", limited.get(), channelId, userId);
+            event.reply("⏳ Troppe richieste, riprova tra poco.").setEphemeral(true).queue();
+            return;
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Domanda: {}", contentLogPolicy.describe(question));
+        }
+
+        // Conferma immediata: Discord mostra "sta pensando..." finché non arriva la risposta
+        event.deferReply().queue();
+        InteractionHook hook = event.getHook();
+
+        // Tracciata per ID interazione: viene completata o annullata in modo ordinato allo spegnimento
+        InFlightRequestRegistry.InFlightRequest inFlight = inFlightRequests.start(event.getId(), channelId);
+
+        // Il budget resta entro la finestra di 15 minuti in cui la risposta differita è modificabile
+        RequestDeadline deadline = deadlineProperties.isEnabled()
+                ? RequestDeadline.after(runtimeSettings.resolve(guildId, channelId).deadlines().interaction())
+                : null;
+        Context context = Context.of(LoggingContextConfiguration.CHANNEL_ID, channelId,
+                                     LoggingContextConfiguration.USER_ID, userId,
+                                     InFlightRequestRegistry.CONTEXT_KEY, inFlight);
+        if (deadline != null) {
+            context = context.put(RequestDeadline.CONTEXT_KEY, deadline);
+        }
+        if (guildId != null) {
+            context = context.put(RuntimeSettings.GUILD_ID, guildId);
+        }
+
+        ConversationKey conversation = scopeResolver.resolveInteraction(event.getChannel(), userId, event.getId());
+        Mono<String> pipeline = chatBotService.processUserMessage(conversation, question, event.getId())
+            .doOnNext(botResponse -> {
+                logger.info("Risposta ricevuta per conversazione: {}, lunghezza: {} caratteri",
+                           conversation.indexKey(), botResponse.length());
+                sendReply(hook, botResponse, deadline, conversation);
+            })
+            .doOnError(error -> {
+                if (error instanceof DuplicateMessageException) {
+                    deduplicator.recordDuplicate("store");
+                    logger.info("Interazione duplicata ignorata: {} (store)", event.getId());
+                    return;
+                }
+                logger.error("Errore durante l'elaborazione del comando /ask - Canale: {}", channelId, error);
+                hook.editOriginal(errorReplyFormatter.format(error, channelId)).queue();
+            })
+            .doFinally(signalType -> inFlightRequests.finish(inFlight))
+            .contextWrite(context)
+            .onErrorResume(error -> Mono.empty()); // già gestito in doOnError
+
+        Disposable subscription = ingressScheduler.submit(guildId, priorityOf(event), pipeline, () -> {
+            inFlightRequests.finish(inFlight);
+            hook.editOriginal("🚦 Sono molto occupato in questo momento, riprova tra poco.").queue();
+        });
+        inFlightRequests.track(inFlight, subscription);
+    }
+
+    /**
+     * Messaggi diretti e moderatori (permesso di gestione messaggi) hanno la precedenza nello stadio di ingresso
+     */
+    private IngressScheduler.Priority priorityOf(SlashCommandInteractionEvent event) {
+        Member member = event.getMember();
+        if (member == null || member.hasPermission(event.getGuildChannel(), Permission.MESSAGE_MANAGE)) {
+            return IngressScheduler.Priority.HIGH;
+        }
+        return IngressScheduler.Priority.NORMAL;
+    }
+
+    private void handleClear(SlashCommandInteractionEvent event, String channelId, String userId) {
+        event.deferReply(true).queue();
+        InteractionHook hook = event.getHook();
+
+        chatBotService.clearChannelHistory(channelId)
+            .doOnSuccess(done -> hook.editOriginal("🧹 Cronologia del canale cancellata.").queue())
+            .doOnError(error -> {
+                logger.error("Errore durante la cancellazione della cronologia - Canale: {}", channelId, error);
+                hook.editOriginal(errorReplyFormatter.format(error, channelId)).queue();
+            })
+            .contextWrite(Context.of(LoggingContextConfiguration.CHANNEL_ID, channelId,
+                                     LoggingContextConfiguration.USER_ID, userId))
+            .subscribe(done -> { }, error -> { });
+    }
+
+    private void handleStats(SlashCommandInteractionEvent event, String channelId, String userId) {
+        event.deferReply(true).queue();
+        InteractionHook hook = event.getHook();
+
+        chatBotService.getChannelStats(channelId)
+            .doOnNext(stats -> hook.editOriginal(String.format(
+                    "📊 Messaggi in cronologia: %d%nToken prompt: %,d%nToken completamento: %,d",
+                    stats.messageCount(), stats.promptTokens(), stats.completionTokens())).queue())
+            .doOnError(error -> {
+                logger.error("Errore durante il calcolo delle statistiche - Canale: {}", channelId, error);
+                hook.editOriginal(errorReplyFormatter.format(error, channelId)).queue();
+            })
+            .contextWrite(Context.of(LoggingContextConfiguration.CHANNEL_ID, channelId,
+                                     LoggingContextConfiguration.USER_ID, userId))
+            .subscribe(stats -> { }, error -> { });
+    }
+
+    private void sendReply(InteractionHook hook, String message, RequestDeadline deadline, ConversationKey conversation) {
+        // editOriginal("") viene rifiutato da Discord e lascerebbe l'utente sul placeholder "sta pensando..."
+        String text = message.isBlank() ? errorReplyFormatter.emptyResponse(conversation.channelId()) : message;
+        List<String> parts = messageSplitter.split(text);
+        if (parts.size() > 1) {
+            logger.info("Messaggio diviso in {} parti", parts.size());
+        }
+
+        // La prima parte sostituisce il placeholder della risposta differita, le altre sono follow-up in ordine
+        // Ogni parte inviata viene ricordata: chi risponde a una di esse prosegue la stessa conversazione
+        RestAction<Message> reply = hook.editOriginal(parts.get(0)).map(sent -> remember(sent, conversation));
+        for (String part : parts.subList(1, parts.size())) {
+            reply = reply.flatMap(previous -> hook.sendMessage(part)).map(sent -> remember(sent, conversation));
+        }
+        if (deadline != null) {
+            reply = reply.deadline(deadline.epochMillis());
+        }
+        reply.queue(null, error -> logger.warn("Invio risposta non riuscito", error));
+    }
+
+    private Message remember(Message sent, ConversationKey conversation) {
+        scopeResolver.rememberReply(sent.getId(), conversation);
+        return sent;
+    }
+}
@@ -0,0 +1,73 @@
+package it.tao.io.test01.domain.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.tao.io.test01.domain.model.ConversationMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Analisi lessicale e ordinamento BM25 dell'indice di recupero
+ */
+class TextAnalyzerTest {
+
+    private final TextAnalyzer analyzer = new TextAnalyzer();
+
+    @Test
+    void termFrequenciesLowercaseAndDropStopWords() {
+        Map<String, Integer> terms = analyzer.termFrequencies("Il Database e il database, in Java: the cache!");
+
+        assertEquals(Map.of("database", 2, "java", 1, "cache", 1), terms);
+    }
+
+    @Test
+    void termFrequenciesSkipShortAndOverlongTerms() {
+        Map<String, Integer> terms = analyzer.termFrequencies("x " + "a".repeat(41) + " ok àèì");
+
+        assertEquals(Map.of("ok", 1, "àèì", 1), terms);
+        assertTrue(analyzer.termFrequencies(null).isEmpty());
+    }
+
+    @Test
+    void searchRanksMatchingMessagesFirst() {
+        ChannelRetrievalIndex index = new ChannelRetrievalIndex(analyzer, new SimpleMeterRegistry(), 10);
+        List<ConversationMessage> history = new ArrayList<>();
+        history.add(message("m1", "ricetta della carbonara con guanciale"));
+        history.add(message("m2", "configurazione del pool di connessioni mongodb"));
+        history.add(message("m3", "timeout del pool mongodb in produzione, pool saturo"));
+        history.add(message("m4", "previsioni del tempo per domani"));
+
+        List<String> top = index.search("c1", history, "pool mongodb saturo", Set.of(), 1);
+        assertEquals(List.of("m3"), top);
+
+        List<String> topTwo = index.search("c1", history, "pool mongodb saturo", Set.of("m3"), 2);
+        assertEquals(List.of("m2"), topTwo);
+
+        assertTrue(index.search("c1", history, "il la the", Set.of(), 3).isEmpty());
+    }
+
+    @Test
+    void searchReturnsResultsByDescendingScore() {
+        ChannelRetrievalIndex index = new ChannelRetrievalIndex(analyzer, new SimpleMeterRegistry(), 10);
+        List<ConversationMessage> history = new ArrayList<>();
+        history.add(message("m1", "mongodb lento"));
+        history.add(message("m2", "configurazione del pool di connessioni mongodb"));
+        history.add(message("m3", "timeout del pool mongodb in produzione, pool saturo"));
+        history.add(message("m4", "previsioni del tempo per domani"));
+
+        assertEquals(List.of("m3", "m2", "m1"), index.search("c1", history, "pool mongodb saturo", Set.of(), 3));
+        assertEquals(List.of("m3", "m2", "m1"), index.search("c1", history, "pool mongodb saturo", Set.of(), 10));
+    }
+
+    private static ConversationMessage message(String id, String content) {
+        ConversationMessage message = ConversationMessage.createUserMessage("c1", content);
+        message.setId(id);
+        return message;
+    }
+}
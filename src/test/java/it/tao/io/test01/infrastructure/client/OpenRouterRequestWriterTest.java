@@ -0,0 +1,113 @@
+package it.tao.io.test01.infrastructure.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.tao.io.test01.infrastructure.client.dto.OpenRouterMessage;
+import it.tao.io.test01.infrastructure.client.dto.OpenRouterRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Corpo delle richieste composto da frammenti: equivalenza con Jackson e riuso dei frammenti in cache
+ */
+class OpenRouterRequestWriterTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void encodesTheSameJsonAsDataBinding() throws Exception {
+        OpenRouterRequestWriter writer = new OpenRouterRequestWriter(objectMapper, 1 << 20);
+        OpenRouterRequest request = request(
+                new OpenRouterMessage("system", "Sei un assistente"),
+                new OpenRouterMessage("user", "Riga 1\nRiga \"2\" con \\ e \t, è 😀", "m1"),
+                new OpenRouterMessage("assistant", null, "m2"),
+                new OpenRouterMessage("user", "Domanda </script> \u0001", "m3").asCacheBreakpoint());
+
+        OpenRouterRequestWriter.EncodedBody body = writer.encode(request);
+        byte[] encoded = join(body);
+
+        assertEquals(objectMapper.readTree(objectMapper.writeValueAsBytes(request)), objectMapper.readTree(encoded));
+        assertEquals(encoded.length, body.contentLength());
+    }
+
+    @Test
+    void cacheBreakpointIsWrittenAsContentPartWithCacheControl() throws Exception {
+        OpenRouterRequestWriter writer = new OpenRouterRequestWriter(objectMapper, 1 << 20);
+
+        JsonNode json = objectMapper.readTree(join(writer.encode(request(
+                new OpenRouterMessage("user", "Prefisso stabile", "m1").asCacheBreakpoint(),
+                new OpenRouterMessage("user", "Domanda", "m2")))));
+
+        JsonNode content = json.get("messages").get(0).get("content");
+        assertTrue(content.isArray());
+        assertEquals("text", content.get(0).get("type").asText());
+        assertEquals("Prefisso stabile", content.get(0).get("text").asText());
+        assertEquals("ephemeral", content.get(0).get("cache_control").get("type").asText());
+        assertEquals("Domanda", json.get("messages").get(1).get("content").asText());
+    }
+
+    @Test
+    void fragmentsAreReusedBySourceIdRoleAndBreakpoint() throws Exception {
+        OpenRouterRequestWriter writer = new OpenRouterRequestWriter(objectMapper, 1 << 20);
+        OpenRouterMessage stored = new OpenRouterMessage("user", "Messaggio salvato", "m1");
+
+        writer.encode(request(stored));
+        writer.encode(request(stored));
+        assertEquals(1, writer.fragmentMisses());
+        assertEquals(1, writer.fragmentHits());
+
+        // Stesso messaggio come punto di cache: forma diversa, frammento distinto
+        JsonNode json = objectMapper.readTree(join(writer.encode(request(stored.asCacheBreakpoint()))));
+        assertEquals(2, writer.fragmentMisses());
+        assertTrue(json.get("messages").get(0).get("content").isArray());
+
+        writer.encode(request(new OpenRouterMessage("assistant", "Messaggio salvato", "m1")));
+        assertEquals(3, writer.fragmentMisses());
+        assertEquals(1, writer.fragmentHits());
+    }
+
+    @Test
+    void messagesWithoutSourceIdAreNeverCached() {
+        OpenRouterRequestWriter writer = new OpenRouterRequestWriter(objectMapper, 1 << 20);
+        OpenRouterMessage system = new OpenRouterMessage("system", "Prompt di sistema");
+
+        writer.encode(request(system));
+        writer.encode(request(system));
+
+        assertEquals(0, writer.fragmentHits());
+        assertEquals(0, writer.cachedBytes());
+    }
+
+    @Test
+    void cacheStaysWithinItsByteBudget() {
+        OpenRouterRequestWriter writer = new OpenRouterRequestWriter(objectMapper, 100);
+
+        for (int i = 0; i < 10; i++) {
+            writer.encode(request(new OpenRouterMessage("user", "Messaggio numero " + i, "m" + i)));
+        }
+        writer.encode(request(new OpenRouterMessage("user", "x".repeat(200), "big")));
+
+        assertTrue(writer.cachedBytes() > 0);
+        assertTrue(writer.cachedBytes() <= 100, "Byte in cache: " + writer.cachedBytes());
+    }
+
+    private static OpenRouterRequest request(OpenRouterMessage... messages) {
+        return new OpenRouterRequest("openai/gpt-4o-mini", List.of(messages), 0.7, 512, false);
+    }
+
+    private static byte[] join(OpenRouterRequestWriter.EncodedBody body) {
+        return DataBufferUtils.join(body.toDataBuffers())
+                .map(buffer -> {
+                    byte[] bytes = new byte[buffer.readableByteCount()];
+                    buffer.read(bytes);
+                    DataBufferUtils.release(buffer);
+                    return bytes;
+                })
+                .block();
+    }
+}
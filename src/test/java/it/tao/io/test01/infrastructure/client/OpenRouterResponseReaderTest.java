@@ -0,0 +1,111 @@
+package it.tao.io.test01.infrastructure.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.tao.io.test01.domain.model.TokenUsage;
+import it.tao.io.test01.infrastructure.client.OpenRouterResponseReader.ParsedCompletion;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Decodifica in streaming delle risposte: campi estratti, corpi di errore e buffer spezzati in punti arbitrari
+ */
+class OpenRouterResponseReaderTest {
+
+    private static final String COMPLETION = """
+            {"id":"gen-1","model":"openai/gpt-4o-mini",
+             "choices":[{"index":0,"logprobs":{"content":[{"token":"x"}]},
+                         "message":{"role":"assistant","content":"Ciao 😀, \\"mondo\\"\\nè tutto ok"},
+                         "finish_reason":"stop"},
+                        {"index":1,"message":{"role":"assistant","content":"seconda scelta"},"finish_reason":"length"}],
+             "usage":{"prompt_tokens":120,"completion_tokens":30,"total_tokens":150,
+                      "prompt_tokens_details":{"cached_tokens":100}}}
+            """;
+
+    private final OpenRouterResponseReader reader = new OpenRouterResponseReader(new ObjectMapper());
+
+    @Test
+    void extractsContentOfTheFirstChoiceAndUsage() {
+        ParsedCompletion completion = read(COMPLETION, Integer.MAX_VALUE);
+
+        assertEquals("Ciao 😀, \"mondo\"\nè tutto ok", completion.content());
+        assertEquals("stop", completion.finishReason());
+        assertEquals("openai/gpt-4o-mini", completion.model());
+        assertEquals(new TokenUsage(120, 30, 150, 100), completion.usage());
+        assertNull(completion.errorMessage());
+    }
+
+    @Test
+    void responseSplitAcrossBuffersAtAnyByteGivesTheSameResult() {
+        ParsedCompletion expected = read(COMPLETION, Integer.MAX_VALUE);
+
+        // Tagli dentro token, stringhe con escape e caratteri UTF-8 multibyte
+        for (int chunkSize : new int[]{1, 2, 3, 7, 64}) {
+            assertEquals(expected, read(COMPLETION, chunkSize), "Buffer da " + chunkSize + " byte");
+        }
+    }
+
+    @Test
+    void missingUsageYieldsEmptyUsage() {
+        ParsedCompletion completion = read("""
+                {"model":"m","choices":[{"message":{"content":"ok"},"finish_reason":"stop"}]}
+                """, 5);
+
+        assertEquals("ok", completion.content());
+        assertTrue(completion.usage().isEmpty());
+    }
+
+    @Test
+    void nullContentIsKeptAsNull() {
+        ParsedCompletion completion = read("""
+                {"choices":[{"message":{"role":"assistant","content":null},"finish_reason":"content_filter"}]}
+                """, Integer.MAX_VALUE);
+
+        assertNull(completion.content());
+        assertEquals("content_filter", completion.finishReason());
+    }
+
+    @Test
+    void errorBodyExposesTheProviderMessage() {
+        ParsedCompletion completion = read("""
+                {"error":{"message":"Rate limit exceeded","code":429,"metadata":{"raw":"{\\"message\\":\\"x\\"}"}}}
+                """, 4);
+
+        assertEquals("Rate limit exceeded", completion.errorMessage());
+        assertNull(completion.content());
+        assertTrue(completion.usage().isEmpty());
+    }
+
+    @Test
+    void malformedBodyFailsWithDecodingException() {
+        StepVerifier.create(reader.read(buffers("{\"model\": }", Integer.MAX_VALUE)))
+                .expectError(DecodingException.class)
+                .verify();
+    }
+
+    private ParsedCompletion read(String json, int chunkSize) {
+        return reader.read(buffers(json, chunkSize)).block();
+    }
+
+    private static Flux<DataBuffer> buffers(String json, int chunkSize) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        List<DataBuffer> buffers = new ArrayList<>();
+        for (int start = 0; start < bytes.length; start += chunkSize) {
+            int end = (int) Math.min((long) start + chunkSize, bytes.length);
+            buffers.add(DefaultDataBufferFactory.sharedInstance.wrap(Arrays.copyOfRange(bytes, start, end)));
+        }
+        return Flux.fromIterable(buffers);
+    }
+}
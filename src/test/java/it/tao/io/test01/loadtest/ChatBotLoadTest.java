@@ -0,0 +1,166 @@
+package it.tao.io.test01.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.tao.io.test01.application.service.ChatBotApplicationService;
+import it.tao.io.test01.application.service.ModelRouter;
+import it.tao.io.test01.config.AppProperties;
+import it.tao.io.test01.config.DeadlineProperties;
+import it.tao.io.test01.config.IngressProperties;
+import it.tao.io.test01.config.ModelRoutingProperties;
+import it.tao.io.test01.config.PrefetchProperties;
+import it.tao.io.test01.domain.repository.ChannelTokenUsageRepository;
+import it.tao.io.test01.domain.service.ChannelRetrievalIndex;
+import it.tao.io.test01.domain.service.ConversationDomainServiceImpl;
+import it.tao.io.test01.domain.service.ConversationPrefetchBuffer;
+import it.tao.io.test01.domain.service.TextAnalyzer;
+import it.tao.io.test01.domain.service.TokenEstimator;
+import it.tao.io.test01.infrastructure.client.ModelLatencyScoreboard;
+import it.tao.io.test01.infrastructure.client.OpenRouterClient;
+import it.tao.io.test01.infrastructure.client.OpenRouterRequestWriter;
+import it.tao.io.test01.infrastructure.client.OpenRouterResponseReader;
+import it.tao.io.test01.infrastructure.repository.MongoChannelTokenUsageRepository;
+import it.tao.io.test01.infrastructure.repository.MongoConversationMessageRepository;
+import it.tao.io.test01.infrastructure.settings.RuntimeSettings;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test di carico offline della pipeline conversazionale.
+ * Avvia uno stub OpenRouter in-process e genera traffico sintetico di menzioni su molti canali
+ * a una frequenza obiettivo, riportando throughput e latenze p50/p95/p99 per stadio.
+ *
+ * Esecuzione: ./mvnw -Pperf test -Dtest=ChatBotLoadTest [-Dloadtest.rate=50 -Dloadtest.duration-seconds=60 ...]
+ * Per usare un MongoDB locale invece dello store in memoria: -Dloadtest.mongo.uri=mongodb://localhost:27017
+ */
+@Tag("loadtest")
+class ChatBotLoadTest {
+
+    private static final String[] PROMPTS = {
+            "ciao, come va?",
+            "mi spieghi la differenza tra processi e thread?",
+            "riassumi la discussione di oggi in tre punti",
+            "scrivi una funzione java che inverte una lista collegata e spiega la complessità",
+            "grazie!",
+            "quali sono i vantaggi di un'architettura reattiva rispetto a quella bloccante?"
+    };
+
+    @Test
+    void runLoad() {
+        int rate = Integer.getInteger("loadtest.rate", 20);
+        int durationSeconds = Integer.getInteger("loadtest.duration-seconds", 30);
+        int channels = Integer.getInteger("loadtest.channels", 200);
+        int maxConcurrency = Integer.getInteger("loadtest.max-concurrency", 512);
+        String mongoUri = System.getProperty("loadtest.mongo.uri");
+
+        StageLatencyRecorder recorder = new StageLatencyRecorder();
+
+        try (OpenRouterStubServer stub = new OpenRouterStubServer(OpenRouterStubServer.Config.fromSystemProperties())) {
+            ReactiveMongoTemplate template = mongoUri != null
+                    ? LoadTestRepositories.mongoTemplate(mongoUri, "test01_loadtest")
+                    : null;
+            MongoConversationMessageRepository repository = LoadTestRepositories.timed(
+                    template != null ? LoadTestRepositories.mongo(template) : LoadTestRepositories.inMemory(),
+                    recorder);
+            ChannelTokenUsageRepository tokenUsageRepository = template != null
+                    ? new MongoChannelTokenUsageRepository(template)
+                    : LoadTestRepositories.inMemoryTokenUsage();
+
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            ModelLatencyScoreboard scoreboard = new ModelLatencyScoreboard(meterRegistry);
+            AppProperties appProperties = new AppProperties();
+            appProperties.getRetry().setBaseDelay(Duration.ofMillis(200));
+            RuntimeSettings runtimeSettings = new RuntimeSettings(appProperties, new IngressProperties(),
+                    new DeadlineProperties(), LoadTestRepositories.noSettingsOverrides(), meterRegistry);
+            OpenRouterClient client = openRouterClient(stub.baseUrl(), recorder, meterRegistry, scoreboard, runtimeSettings);
+            ChatBotApplicationService service = new ChatBotApplicationService(
+                    new ConversationDomainServiceImpl(repository, tokenUsageRepository, new TokenEstimator(), appProperties,
+                            new ChannelRetrievalIndex(new TextAnalyzer(), meterRegistry, 1000),
+                            new ConversationPrefetchBuffer(new PrefetchProperties(), meterRegistry)),
+                    client,
+                    new ModelRouter(new ModelRoutingProperties(), scoreboard, client),
+                    runtimeSettings,
+                    meterRegistry);
+
+            LongAdder succeeded = new LongAdder();
+            LongAdder shedByHarness = new LongAdder();
+            Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+            AtomicLong sequence = new AtomicLong();
+
+            long totalRequests = (long) rate * durationSeconds;
+            long started = System.nanoTime();
+
+            Flux.interval(Duration.ofNanos(1_000_000_000L / rate))
+                    .take(totalRequests)
+                    .onBackpressureDrop(tick -> shedByHarness.increment())
+                    .flatMap(tick -> {
+                        long n = sequence.getAndIncrement();
+                        String channelId = "loadtest-" + (n % channels);
+                        String prompt = PROMPTS[(int) (n % PROMPTS.length)];
+                        long requestStart = System.nanoTime();
+
+                        return service.processUserMessage(channelId, prompt)
+                                .doOnSuccess(response -> {
+                                    recorder.record("pipeline.total", System.nanoTime() - requestStart);
+                                    succeeded.increment();
+                                })
+                                .onErrorResume(error -> {
+                                    recorder.record("pipeline.failed", System.nanoTime() - requestStart);
+                                    failures.computeIfAbsent(error.getClass().getSimpleName(), k -> new LongAdder())
+                                            .increment();
+                                    return Mono.empty();
+                                });
+                    }, maxConcurrency)
+                    .blockLast(Duration.ofSeconds(durationSeconds * 4L + 60));
+
+            double elapsedSeconds = (System.nanoTime() - started) / 1_000_000_000.0;
+
+            System.out.printf("%n=== Load test: %d req/s obiettivo, %ds, %d canali, store=%s ===%n",
+                    rate, durationSeconds, channels, mongoUri != null ? "mongo" : "in-memory");
+            System.out.print(recorder.report(elapsedSeconds));
+            System.out.printf("completate=%d fallite=%s scartate dall'harness=%d%n",
+                    succeeded.sum(), new TreeMap<>(failures), shedByHarness.sum());
+            System.out.printf("stub: richieste=%d 429=%d 5xx=%d streaming=%d%n",
+                    stub.requests(), stub.rateLimited(), stub.serverErrors(), stub.streamed());
+
+            assertTrue(succeeded.sum() > 0, "Nessuna richiesta completata con successo");
+        }
+    }
+
+    private OpenRouterClient openRouterClient(String baseUrl, StageLatencyRecorder recorder,
+                                              SimpleMeterRegistry meterRegistry, ModelLatencyScoreboard scoreboard,
+                                              RuntimeSettings runtimeSettings) {
+        WebClient.Builder builder = WebClient.builder()
+                .filter((request, next) -> Mono.defer(() -> {
+                    long start = System.nanoTime();
+                    return next.exchange(request)
+                            .doOnTerminate(() -> recorder.record("openrouter.ttfb", System.nanoTime() - start));
+                }));
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        OpenRouterClient client = new OpenRouterClient(builder, meterRegistry,
+                new OpenRouterRequestWriter(objectMapper, 32L * 1024 * 1024),
+                new OpenRouterResponseReader(objectMapper),
+                scoreboard,
+                runtimeSettings,
+                new PrefetchProperties(),
+                new ModelRoutingProperties(),
+                "loadtest-key", baseUrl);
+        ReflectionTestUtils.setField(client, "modelName", "stub/model");
+        return client;
+    }
+}
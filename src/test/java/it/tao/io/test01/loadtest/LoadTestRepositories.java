@@ -0,0 +1,207 @@
+package it.tao.io.test01.loadtest;
+
+import com.mongodb.reactivestreams.client.MongoClients;
+import it.tao.io.test01.domain.model.ChannelTokenUsage;
+import it.tao.io.test01.domain.model.ConversationMessage;
+import it.tao.io.test01.domain.model.SettingsOverride;
+import it.tao.io.test01.domain.model.TokenUsage;
+import it.tao.io.test01.domain.repository.ChannelTokenUsageRepository;
+import it.tao.io.test01.domain.repository.SettingsOverrideRepository;
+import it.tao.io.test01.infrastructure.repository.MongoConversationMessageRepository;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.repository.support.ReactiveMongoRepositoryFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fabbrica dei repository usati dal test di carico: store in memoria (default, nessuna dipendenza esterna)
+ * oppure MongoDB locale, entrambi avvolti da un proxy che misura la latenza di ogni operazione
+ */
+public final class LoadTestRepositories {
+
+    private LoadTestRepositories() {
+    }
+
+    /**
+     * Template MongoDB reale sull'URI indicato (es. mongodb://localhost:27017)
+     */
+    public static ReactiveMongoTemplate mongoTemplate(String uri, String database) {
+        return new ReactiveMongoTemplate(MongoClients.create(uri), database);
+    }
+
+    /**
+     * Repository MongoDB dei messaggi costruito sul template indicato
+     */
+    public static MongoConversationMessageRepository mongo(ReactiveMongoTemplate template) {
+        return new ReactiveMongoRepositoryFactory(template).getRepository(MongoConversationMessageRepository.class);
+    }
+
+    /**
+     * Contabilità token per canale in memoria
+     */
+    public static ChannelTokenUsageRepository inMemoryTokenUsage() {
+        Map<String, ChannelTokenUsage> totals = new ConcurrentHashMap<>();
+        return new ChannelTokenUsageRepository() {
+            @Override
+            public Mono<Void> addUsage(String channelId, TokenUsage usage) {
+                return Mono.fromRunnable(() -> totals.merge(channelId,
+                        new ChannelTokenUsage(channelId, usage.promptTokens(), usage.completionTokens(), 1, null),
+                        (a, b) -> new ChannelTokenUsage(channelId,
+                                a.getPromptTokens() + b.getPromptTokens(),
+                                a.getCompletionTokens() + b.getCompletionTokens(),
+                                a.getRequests() + b.getRequests(), null)));
+            }
+
+            @Override
+            public Mono<ChannelTokenUsage> findByChannelId(String channelId) {
+                return Mono.justOrEmpty(totals.get(channelId));
+            }
+
+            @Override
+            public Mono<Void> deleteByChannelId(String channelId) {
+                return Mono.fromRunnable(() -> totals.remove(channelId));
+            }
+        };
+    }
+
+    /**
+     * Nessuna impostazione modificata: la pipeline usa i predefiniti di AppProperties
+     */
+    public static SettingsOverrideRepository noSettingsOverrides() {
+        return new SettingsOverrideRepository() {
+            @Override
+            public Flux<SettingsOverride> findAll() {
+                return Flux.empty();
+            }
+
+            @Override
+            public Mono<Void> setValue(String target, String key, String value) {
+                return Mono.empty();
+            }
+
+            @Override
+            public Mono<Void> unsetValue(String target, String key) {
+                return Mono.empty();
+            }
+
+            @Override
+            public Mono<Void> deleteByTarget(String target) {
+                return Mono.empty();
+            }
+        };
+    }
+
+    /**
+     * Repository in memoria che implementa le sole operazioni usate dalla pipeline
+     */
+    public static MongoConversationMessageRepository inMemory() {
+        return proxy(new InMemoryHandler());
+    }
+
+    /**
+     * Avvolge un repository registrando la durata di ogni operazione reattiva come stadio "store.*"
+     */
+    public static MongoConversationMessageRepository timed(MongoConversationMessageRepository delegate,
+                                                           StageLatencyRecorder recorder) {
+        return proxy((proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return invoke(delegate, method, args);
+            }
+            String stage = "store." + method.getName();
+
+            Object result = invoke(delegate, method, args);
+            if (result instanceof Mono<?> mono) {
+                return Mono.defer(() -> {
+                    long start = System.nanoTime();
+                    return mono.doOnTerminate(() -> recorder.record(stage, System.nanoTime() - start));
+                });
+            }
+            if (result instanceof Flux<?> flux) {
+                return Flux.defer(() -> {
+                    long start = System.nanoTime();
+                    return flux.doOnTerminate(() -> recorder.record(stage, System.nanoTime() - start));
+                });
+            }
+            return result;
+        });
+    }
+
+    private static MongoConversationMessageRepository proxy(InvocationHandler handler) {
+        return (MongoConversationMessageRepository) Proxy.newProxyInstance(
+                LoadTestRepositories.class.getClassLoader(),
+                new Class<?>[]{MongoConversationMessageRepository.class},
+                handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Store in memoria per canale, sufficiente per la pipeline del bot
+     */
+    private static final class InMemoryHandler implements InvocationHandler {
+
+        private final Map<String, List<ConversationMessage>> channels = new ConcurrentHashMap<>();
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            return switch (method.getName()) {
+                case "save" -> save((ConversationMessage) args[0]);
+                case "findByChannelIdOrderByTimestamp" -> Flux.defer(() -> Flux.fromIterable(snapshot((String) args[0])));
+                case "findByChannelIdAndConversationIdIsNullOrderByTimestamp" -> Flux.defer(() -> Flux.fromIterable(snapshot((String) args[0])))
+                        .filter(message -> message.getConversationId() == null);
+                case "findByChannelIdAndConversationIdOrderByTimestamp" -> Flux.defer(() -> Flux.fromIterable(snapshot((String) args[0])))
+                        .filter(message -> args[1].equals(message.getConversationId()));
+                case "findFirstByChannelIdAndSourceMessageId" -> Flux.defer(() -> Flux.fromIterable(snapshot((String) args[0])))
+                        .filter(message -> args[1].equals(message.getSourceMessageId()))
+                        .next();
+                case "countByChannelId" -> Mono.fromSupplier(() -> (long) snapshot((String) args[0]).size());
+                case "deleteByChannelId" -> Mono.fromRunnable(() -> channels.remove((String) args[0]));
+                case "count" -> Mono.fromSupplier(() -> channels.values().stream().mapToLong(List::size).sum());
+                case "deleteAll" -> Mono.fromRunnable(channels::clear);
+                case "toString" -> "InMemoryConversationMessageRepository";
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                default -> throw new UnsupportedOperationException(
+                        "Operazione non supportata dallo store in memoria: " + method.getName());
+            };
+        }
+
+        private Mono<ConversationMessage> save(ConversationMessage message) {
+            return Mono.fromSupplier(() -> {
+                if (message.getId() == null) {
+                    message.setId(UUID.randomUUID().toString());
+                }
+                channels.computeIfAbsent(message.getChannelId(), c -> Collections.synchronizedList(new ArrayList<>()))
+                        .add(message);
+                return message;
+            });
+        }
+
+        private List<ConversationMessage> snapshot(String channelId) {
+            List<ConversationMessage> messages = channels.get(channelId);
+            if (messages == null) {
+                return List.of();
+            }
+            synchronized (messages) {
+                return new ArrayList<>(messages);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package it.tao.io.test01.loadtest;
+
+import it.tao.io.test01.config.AppProperties;
+import it.tao.io.test01.presentation.formatter.DiscordMessageSplitter;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Benchmark della divisione delle risposte lunghe: algoritmo precedente (substring del resto a ogni parte)
+ * contro lo splitter a passata singola, su risposte da 10k a 100k caratteri con blocchi di codice.
+ *
+ * Esecuzione: ./mvnw -Pperf test -Dtest=MessageSplitterBenchmark
+ */
+@Tag("benchmark")
+class MessageSplitterBenchmark {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final int LIMIT = 2000;
+    private static final int[] SIZES = {10_000, 25_000, 50_000, 100_000};
+    private static final int ITERATIONS = 2_000;
+
+    private final DiscordMessageSplitter splitter = new DiscordMessageSplitter(new AppProperties());
+
+    @Test
+    void splitLongReplies() {
+        System.out.printf("%n=== Divisione messaggi (limite %d) ===%n", LIMIT);
+        System.out.printf("%10s %14s %14s %16s %16s%n", "caratteri", "prima µs", "dopo µs", "prima byte", "dopo byte");
+
+        for (int size : SIZES) {
+            String reply = reply(size);
+            verify(reply, splitter.split(reply));
+
+            Measurement before = measure(reply, MessageSplitterBenchmark::legacySplit);
+            Measurement after = measure(reply, splitter::split);
+
+            System.out.printf("%10d %14.1f %14.1f %,16d %,16d%n",
+                    size, before.micros, after.micros, before.bytes, after.bytes);
+        }
+    }
+
+    /**
+     * Ogni parte rispetta il limite, apre e chiude i propri blocchi di codice e non spezza coppie surrogate;
+     * il testo ricomposto (senza spazi e delimitatori aggiunti) coincide con l'originale
+     */
+    private static void verify(String reply, List<String> parts) {
+        StringBuilder rebuilt = new StringBuilder(reply.length());
+        for (String part : parts) {
+            assertTrue(part.length() <= LIMIT, "Parte oltre il limite: " + part.length());
+            assertEquals(0, countFences(part) % 2, "Blocco di codice non bilanciato nella parte");
+            assertTrue(!Character.isHighSurrogate(part.charAt(part.length() - 1)), "Coppia surrogata spezzata");
+            rebuilt.append(part.replace("```java", "").replace("```", ""));
+        }
+        String expected = reply.replace("```java", "").replace("```", "").replaceAll("\\s+", "");
+        assertEquals(expected, rebuilt.toString().replaceAll("\\s+", ""));
+    }
+
+    private static int countFences(String part) {
+        int count = 0;
+        for (int i = part.indexOf("```"); i >= 0; i = part.indexOf("```", i + 3)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static Measurement measure(String reply, Function<String, List<String>> split) {
+        for (int i = 0; i < ITERATIONS / 4; i++) {
+            split.apply(reply);
+        }
+        long allocated = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            split.apply(reply);
+        }
+        long elapsed = System.nanoTime() - start;
+        long bytes = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+        return new Measurement(elapsed / 1_000.0 / ITERATIONS, bytes / ITERATIONS);
+    }
+
+    private record Measurement(double micros, long bytes) {
+    }
+
+    /**
+     * Risposta sintetica: paragrafi di testo con emoji e blocchi di codice lunghi
+     */
+    private static String reply(int size) {
+        StringBuilder sb = new StringBuilder(size + 512);
+        int paragraph = 0;
+        while (sb.length() < size) {
+            if (paragraph % 4 == 3) {
+                sb.append("```java\n");
+                for (int line = 0; line < 60; line++) {
+                    sb.append("    int valore").append(line).append(" = calcola(").append(line).append(");\n");
+                }
+                sb.append("```\n\n");
+            } else {
+                for (int sentence = 0; sentence < 8; sentence++) {
+                    sb.append("Questa è la frase ").append(sentence).append(" del paragrafo ").append(paragraph)
+                      .append(" con un'emoji 🚀 e qualche dettaglio in più. ");
+                }
+                sb.append("\n\n");
+            }
+            paragraph++;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Algoritmo precedente, riportato per confronto
+     */
+    private static List<String> legacySplit(String message) {
+        List<String> parts = new ArrayList<>();
+        String remaining = message;
+
+        while (remaining.length() > LIMIT) {
+            int breakPoint = LIMIT;
+            for (int i = LIMIT - 1; i > LIMIT - 200; i--) {
+                char c = remaining.charAt(i);
+                if (c == ' ' || c == '\n' || c == '.' || c == ',' || c == ';' || c == '!' || c == '?') {
+                    breakPoint = i + 1;
+                    break;
+                }
+            }
+            parts.add(remaining.substring(0, breakPoint).trim());
+            remaining = remaining.substring(breakPoint);
+        }
+
+        if (!remaining.trim().isEmpty()) {
+            parts.add(remaining.trim());
+        }
+        return parts;
+    }
+}
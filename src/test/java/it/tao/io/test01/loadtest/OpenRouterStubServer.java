@@ -0,0 +1,180 @@
+package it.tao.io.test01.loadtest;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stub in-process compatibile con l'endpoint /chat/completions di OpenRouter.
+ * Simula latenza (distribuzione log-normale), risposte in streaming SSE ed errori 429/500,
+ * senza alcun accesso alla rete esterna.
+ */
+public class OpenRouterStubServer implements AutoCloseable {
+
+    private static final String REPLY_WORDS =
+            "lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod tempor incididunt ";
+
+    private final Config config;
+    private final DisposableServer server;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong serverErrors = new AtomicLong();
+    private final AtomicLong streamed = new AtomicLong();
+
+    public OpenRouterStubServer(Config config) {
+        this.config = config;
+        this.server = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .route(routes -> routes.post("/api/v1/chat/completions", this::handleChatCompletion))
+                .bindNow();
+    }
+
+    /**
+     * URL base da usare come openrouter.api.base-url
+     */
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.port() + "/api/v1";
+    }
+
+    private Mono<Void> handleChatCompletion(HttpServerRequest request, HttpServerResponse response) {
+        return request.receive().aggregate().asString(StandardCharsets.UTF_8)
+                .flatMap(body -> {
+                    requests.incrementAndGet();
+                    int promptTokens = Math.max(1, body.length() / 4);
+                    boolean stream = body.contains("\"stream\":true");
+
+                    return Mono.delay(sampleLatency())
+                            .then(Mono.defer(() -> respond(response, promptTokens, stream)));
+                });
+    }
+
+    private Mono<Void> respond(HttpServerResponse response, int promptTokens, boolean stream) {
+        double roll = ThreadLocalRandom.current().nextDouble();
+
+        if (roll < config.rateLimitRate()) {
+            rateLimited.incrementAndGet();
+            return response.status(HttpResponseStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                    .header(HttpHeaderNames.RETRY_AFTER, "1")
+                    .sendString(Mono.just("{\"error\":{\"code\":429,\"message\":\"Rate limit exceeded\"}}"))
+                    .then();
+        }
+        if (roll < config.rateLimitRate() + config.errorRate()) {
+            serverErrors.incrementAndGet();
+            return response.status(HttpResponseStatus.INTERNAL_SERVER_ERROR)
+                    .header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                    .sendString(Mono.just("{\"error\":{\"code\":500,\"message\":\"Upstream error\"}}"))
+                    .then();
+        }
+
+        String reply = buildReply(config.replyChars());
+        int completionTokens = Math.max(1, reply.length() / 4);
+
+        if (stream) {
+            streamed.incrementAndGet();
+            return response.sse()
+                    .sendString(streamChunks(reply, promptTokens, completionTokens))
+                    .then();
+        }
+
+        return response.header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                .sendString(Mono.just(completionJson(reply, promptTokens, completionTokens)))
+                .then();
+    }
+
+    private Flux<String> streamChunks(String reply, int promptTokens, int completionTokens) {
+        int chunkSize = 64;
+        int chunks = (reply.length() + chunkSize - 1) / chunkSize;
+
+        Flux<String> deltas = Flux.range(0, chunks)
+                .delayElements(config.streamChunkDelay())
+                .map(i -> {
+                    String part = reply.substring(i * chunkSize, Math.min(reply.length(), (i + 1) * chunkSize));
+                    return "data: {\"id\":\"stub\",\"object\":\"chat.completion.chunk\",\"model\":\"stub\","
+                            + "\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + part + "\"}}]}\n\n";
+                });
+
+        String last = "data: {\"id\":\"stub\",\"object\":\"chat.completion.chunk\",\"model\":\"stub\","
+                + "\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}],"
+                + usageJson(promptTokens, completionTokens) + "}\n\n";
+
+        return deltas.concatWith(Flux.just(last, "data: [DONE]\n\n"));
+    }
+
+    private String completionJson(String reply, int promptTokens, int completionTokens) {
+        return "{\"id\":\"stub-" + requests.get() + "\",\"object\":\"chat.completion\","
+                + "\"created\":" + (System.currentTimeMillis() / 1000) + ",\"model\":\"stub\","
+                + "\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"" + reply + "\"},"
+                + "\"finish_reason\":\"stop\"}],"
+                + usageJson(promptTokens, completionTokens) + "}";
+    }
+
+    private String usageJson(int promptTokens, int completionTokens) {
+        return "\"usage\":{\"prompt_tokens\":" + promptTokens
+                + ",\"completion_tokens\":" + completionTokens
+                + ",\"total_tokens\":" + (promptTokens + completionTokens) + "}";
+    }
+
+    private String buildReply(int chars) {
+        StringBuilder sb = new StringBuilder(chars);
+        while (sb.length() < chars) {
+            sb.append(REPLY_WORDS);
+        }
+        sb.setLength(chars);
+        return sb.toString().trim();
+    }
+
+    /**
+     * Campiona una latenza log-normale definita da mediana e p99
+     */
+    private Duration sampleLatency() {
+        double median = config.medianLatency().toNanos();
+        double p99 = Math.max(median, config.p99Latency().toNanos());
+        double sigma = Math.log(p99 / median) / 2.326;
+        double sample = median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian());
+        return Duration.ofNanos((long) sample);
+    }
+
+    public long requests() { return requests.get(); }
+    public long rateLimited() { return rateLimited.get(); }
+    public long serverErrors() { return serverErrors.get(); }
+    public long streamed() { return streamed.get(); }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+
+    /**
+     * Configurazione dello stub
+     */
+    public record Config(Duration medianLatency,
+                         Duration p99Latency,
+                         double rateLimitRate,
+                         double errorRate,
+                         int replyChars,
+                         Duration streamChunkDelay) {
+
+        public static Config fromSystemProperties() {
+            return new Config(
+                    Duration.ofMillis(Long.getLong("loadtest.stub.latency-median-ms", 800)),
+                    Duration.ofMillis(Long.getLong("loadtest.stub.latency-p99-ms", 4000)),
+                    Double.parseDouble(System.getProperty("loadtest.stub.rate-limit-rate", "0.02")),
+                    Double.parseDouble(System.getProperty("loadtest.stub.error-rate", "0.01")),
+                    Integer.getInteger("loadtest.stub.reply-chars", 1200),
+                    Duration.ofMillis(Long.getLong("loadtest.stub.stream-chunk-delay-ms", 20)));
+        }
+    }
+}
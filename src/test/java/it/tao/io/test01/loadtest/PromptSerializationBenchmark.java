@@ -0,0 +1,167 @@
+package it.tao.io.test01.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.tao.io.test01.infrastructure.client.OpenRouterRequestWriter;
+import it.tao.io.test01.infrastructure.client.OpenRouterResponseReader;
+import it.tao.io.test01.infrastructure.client.dto.OpenRouterMessage;
+import it.tao.io.test01.infrastructure.client.dto.OpenRouterRequest;
+import it.tao.io.test01.infrastructure.client.dto.OpenRouterResponse;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Benchmark dell'allocazione per richiesta: serializzazione completa con Jackson (prima)
+ * contro composizione di frammenti pre-serializzati (dopo), e decodifica ad albero contro
+ * decodifica in streaming della risposta.
+ *
+ * Esecuzione: ./mvnw -Pperf test -Dtest=PromptSerializationBenchmark
+ */
+@Tag("benchmark")
+class PromptSerializationBenchmark {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final int WINDOW_MESSAGES = 400;
+    private static final int MESSAGE_CHARS = 1200;
+    private static final int ITERATIONS = 200;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void requestBodyAllocation() throws Exception {
+        OpenRouterRequestWriter writer = new OpenRouterRequestWriter(objectMapper, 64L * 1024 * 1024);
+        List<OpenRouterRequest> requests = slidingWindowRequests(ITERATIONS * 2);
+
+        // Stesso contenuto prodotto dalle due strade
+        OpenRouterRequest sample = requests.get(0);
+        byte[] composed = join(writer.encode(sample).toDataBuffers());
+        assertEquals(objectMapper.readTree(objectMapper.writeValueAsBytes(sample)), objectMapper.readTree(composed));
+
+        List<OpenRouterRequest> warmup = requests.subList(0, ITERATIONS);
+        List<OpenRouterRequest> measured = requests.subList(ITERATIONS, requests.size());
+
+        long before = allocatedPerOperation(warmup, measured, request -> objectMapper.writeValueAsBytes(request));
+        long after = allocatedPerOperation(warmup, measured, request ->
+                writer.encode(request).toDataBuffers().subscribe(DataBufferUtils::release));
+
+        System.out.printf("%n=== Corpo richiesta (%d messaggi, ~%d KB) ===%n", WINDOW_MESSAGES, composed.length / 1024);
+        System.out.printf("serializzazione completa: %,d byte allocati/richiesta%n", before);
+        System.out.printf("frammenti pre-serializzati: %,d byte allocati/richiesta%n", after);
+
+        assertTrue(after < before, "La composizione dei frammenti deve allocare meno della serializzazione completa");
+    }
+
+    @Test
+    void responseDecodingAllocation() throws Exception {
+        OpenRouterResponseReader reader = new OpenRouterResponseReader(objectMapper);
+        byte[] body = completionJson().getBytes(StandardCharsets.UTF_8);
+        List<byte[]> chunks = chunks(body, 8192);
+
+        OpenRouterResponseReader.ParsedCompletion parsed = reader.read(buffers(chunks)).block();
+        OpenRouterResponse tree = objectMapper.readValue(body, OpenRouterResponse.class);
+        assertEquals(tree.getChoices().get(0).getMessage().getContent(), parsed.content());
+        assertEquals(tree.getUsage().getPromptTokens(), parsed.usage().promptTokens());
+
+        List<Integer> runs = new ArrayList<>();
+        for (int i = 0; i < ITERATIONS; i++) {
+            runs.add(i);
+        }
+
+        long before = allocatedPerOperation(runs, runs, i ->
+                objectMapper.readValue(join(buffers(chunks)), OpenRouterResponse.class));
+        long after = allocatedPerOperation(runs, runs, i -> reader.read(buffers(chunks)).block());
+
+        System.out.printf("%n=== Decodifica risposta (%d KB) ===%n", body.length / 1024);
+        System.out.printf("aggregazione + albero: %,d byte allocati/risposta%n", before);
+        System.out.printf("streaming: %,d byte allocati/risposta%n", after);
+    }
+
+    /**
+     * Richieste successive di una conversazione: a ogni turno entrano due messaggi nuovi
+     * e la finestra mantiene gli ultimi WINDOW_MESSAGES
+     */
+    private List<OpenRouterRequest> slidingWindowRequests(int count) {
+        List<OpenRouterMessage> history = new ArrayList<>();
+        for (int i = 0; i < WINDOW_MESSAGES + count * 2; i++) {
+            String role = i % 2 == 0 ? "user" : "assistant";
+            history.add(new OpenRouterMessage(role, text(i), "msg-" + i));
+        }
+
+        List<OpenRouterRequest> requests = new ArrayList<>(count);
+        for (int turn = 0; turn < count; turn++) {
+            int end = WINDOW_MESSAGES + turn * 2;
+            requests.add(new OpenRouterRequest("bench/model", history.subList(end - WINDOW_MESSAGES, end), 0.7, 4000, false));
+        }
+        return requests;
+    }
+
+    private String text(int seed) {
+        StringBuilder sb = new StringBuilder(MESSAGE_CHARS);
+        while (sb.length() < MESSAGE_CHARS) {
+            sb.append("messaggio ").append(seed).append(" con \"virgolette\", accenti àèìòù e a capo\n");
+        }
+        sb.setLength(MESSAGE_CHARS);
+        return sb.toString();
+    }
+
+    private String completionJson() throws Exception {
+        OpenRouterResponse response = new OpenRouterResponse("bench", "chat.completion", 0L, "bench/model",
+                List.of(new OpenRouterResponse.Choice(0, new OpenRouterMessage("assistant", text(0).repeat(4)), "stop")),
+                new OpenRouterResponse.Usage(120000, 1000, 121000, new OpenRouterResponse.PromptTokensDetails(90000)));
+        return objectMapper.writeValueAsString(response);
+    }
+
+    private static List<byte[]> chunks(byte[] body, int size) {
+        List<byte[]> chunks = new ArrayList<>();
+        for (int offset = 0; offset < body.length; offset += size) {
+            chunks.add(Arrays.copyOfRange(body, offset, Math.min(body.length, offset + size)));
+        }
+        return chunks;
+    }
+
+    /**
+     * Simula i buffer ricevuti dalla rete, avvolgendo i blocchi senza copiarli
+     */
+    private static Flux<DataBuffer> buffers(List<byte[]> chunks) {
+        return Flux.fromIterable(chunks).<DataBuffer>map(DefaultDataBufferFactory.sharedInstance::wrap);
+    }
+
+    private static byte[] join(Flux<DataBuffer> buffers) {
+        DataBuffer joined = DataBufferUtils.join(buffers).block();
+        byte[] bytes = new byte[joined.readableByteCount()];
+        joined.read(bytes);
+        DataBufferUtils.release(joined);
+        return bytes;
+    }
+
+    private static <T> long allocatedPerOperation(List<T> warmup, List<T> measured, ThrowingConsumer<T> operation)
+            throws Exception {
+        for (T input : warmup) {
+            operation.accept(input);
+        }
+        long start = THREADS.getCurrentThreadAllocatedBytes();
+        for (T input : measured) {
+            operation.accept(input);
+        }
+        return (THREADS.getCurrentThreadAllocatedBytes() - start) / measured.size();
+    }
+
+    @FunctionalInterface
+    private interface ThrowingConsumer<T> {
+        void accept(T value) throws Exception;
+    }
+}
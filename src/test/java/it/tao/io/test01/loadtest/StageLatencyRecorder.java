@@ -0,0 +1,78 @@
+package it.tao.io.test01.loadtest;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Raccoglie le latenze per stadio della pipeline e produce un report con throughput e percentili
+ */
+public class StageLatencyRecorder {
+
+    private final Map<String, Samples> stages = new ConcurrentHashMap<>();
+
+    public void record(String stage, long nanos) {
+        stages.computeIfAbsent(stage, s -> new Samples()).add(nanos);
+    }
+
+    /**
+     * Genera il report testuale per tutti gli stadi registrati
+     */
+    public String report(double elapsedSeconds) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-22s %8s %10s %10s %10s %10s %10s%n",
+                "stage", "count", "rps", "p50(ms)", "p95(ms)", "p99(ms)", "max(ms)"));
+
+        new TreeMap<>(stages).forEach((stage, samples) -> {
+            long[] sorted = samples.sorted();
+            if (sorted.length == 0) {
+                return;
+            }
+            sb.append(String.format("%-22s %8d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    stage,
+                    sorted.length,
+                    sorted.length / elapsedSeconds,
+                    percentile(sorted, 0.50),
+                    percentile(sorted, 0.95),
+                    percentile(sorted, 0.99),
+                    sorted[sorted.length - 1] / 1_000_000.0));
+        });
+        return sb.toString();
+    }
+
+    public long count(String stage) {
+        Samples samples = stages.get(stage);
+        return samples != null ? samples.size() : 0;
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1_000_000.0;
+    }
+
+    /**
+     * Buffer crescente di campioni in nanosecondi
+     */
+    private static final class Samples {
+        private long[] values = new long[1024];
+        private int size;
+
+        synchronized void add(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long[] sorted() {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package it.tao.io.test01.presentation.formatter;
+
+import it.tao.io.test01.config.AppProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Divisione delle risposte nel limite di Discord: confini naturali, blocchi di codice, coppie surrogate e spazi
+ */
+class DiscordMessageSplitterTest {
+
+    @Test
+    void shortMessageIsSentUnchanged() {
+        assertEquals(List.of("Ciao! Come posso aiutarti?"), splitter(2000).split("Ciao! Come posso aiutarti?"));
+    }
+
+    @Test
+    void blankMessageProducesNoParts() {
+        DiscordMessageSplitter splitter = splitter(2000);
+
+        assertEquals(List.of(), splitter.split(""));
+        assertEquals(List.of(), splitter.split(" \n\t "));
+    }
+
+    @Test
+    void longReplyStaysWithinTheDiscordLimitWithoutLosingText() {
+        StringBuilder reply = new StringBuilder();
+        for (int i = 0; reply.length() < 9000; i++) {
+            reply.append("Frase numero ").append(i).append(" della risposta. ");
+            if (i % 15 == 14) {
+                reply.append("\n\n");
+            }
+        }
+
+        List<String> parts = splitter(2000).split(reply.toString());
+
+        assertTrue(parts.size() >= 5);
+        parts.forEach(part -> assertTrue(part.length() <= 2000, "Parte oltre il limite: " + part.length()));
+        assertEquals(withoutWhitespace(reply.toString()), withoutWhitespace(String.join("", parts)));
+    }
+
+    @Test
+    void cutsAtParagraphBoundaryAndTrimsWhitespace() {
+        String first = "a".repeat(60);
+        String second = "b".repeat(60);
+
+        List<String> parts = splitter(100).split(first + "   \n\n   " + second + "  \n");
+
+        assertEquals(List.of(first, second), parts);
+    }
+
+    @Test
+    void codeBlockIsClosedAndReopenedWithItsLanguage() {
+        String code = "```java\n" + "int x = 1;\n".repeat(20) + "```";
+
+        List<String> parts = splitter(100).split("Ecco il codice:\n" + code);
+
+        assertTrue(parts.size() > 1);
+        for (int i = 0; i < parts.size(); i++) {
+            String part = parts.get(i);
+            assertTrue(part.length() <= 100, "Parte oltre il limite: " + part.length());
+            assertEquals(0, countFences(part) % 2, "Blocco di codice non bilanciato: " + part);
+            if (i > 0) {
+                assertTrue(part.startsWith("```java\n"), "Blocco non riaperto: " + part);
+            }
+        }
+        assertEquals(20, String.join("", parts).split("int x = 1;", -1).length - 1);
+    }
+
+    @Test
+    void surrogatePairsAreNeverSplit() {
+        String emoji = "😀";
+        String reply = "a" + emoji.repeat(40);
+
+        List<String> parts = splitter(10).split(reply);
+
+        assertTrue(parts.size() > 1);
+        for (String part : parts) {
+            assertFalse(Character.isHighSurrogate(part.charAt(part.length() - 1)), "Coppia spezzata a fine parte");
+            assertFalse(Character.isLowSurrogate(part.charAt(0)), "Coppia spezzata a inizio parte");
+        }
+        assertEquals(reply, String.join("", parts));
+    }
+
+    private static DiscordMessageSplitter splitter(int limit) {
+        AppProperties properties = new AppProperties();
+        properties.setDiscordMessageLimit(limit);
+        return new DiscordMessageSplitter(properties);
+    }
+
+    private static String withoutWhitespace(String text) {
+        return text.replaceAll("\\s+", "");
+    }
+
+    private static int countFences(String text) {
+        int count = 0;
+        for (int i = text.indexOf("```"); i >= 0; i = text.indexOf("```", i + 3)) {
+            count++;
+        }
+        return count;
+    }
+}
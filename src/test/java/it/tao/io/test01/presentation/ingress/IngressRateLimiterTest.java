@@ -0,0 +1,84 @@
+package it.tao.io.test01.presentation.ingress;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.tao.io.test01.config.RateLimitProperties;
+import it.tao.io.test01.presentation.ingress.IngressRateLimiter.Scope;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Limiti per utente, canale e server sulle finestre scorrevoli del limitatore di ingresso
+ */
+class IngressRateLimiterTest {
+
+    private static final Duration WINDOW = Duration.ofMillis(200);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RateLimitProperties properties = new RateLimitProperties();
+
+    @Test
+    void rejectsOverTheUserLimitAndAdmitsAgainOnceTheWindowSlides() throws InterruptedException {
+        properties.setUser(new RateLimitProperties.Limit(2, WINDOW));
+        IngressRateLimiter limiter = new IngressRateLimiter(properties, meterRegistry);
+
+        assertEquals(Optional.empty(), limiter.tryAcquire("u1", "c1", "g1"));
+        assertEquals(Optional.empty(), limiter.tryAcquire("u1", "c1", "g1"));
+        assertEquals(Optional.of(Scope.USER), limiter.tryAcquire("u1", "c1", "g1"));
+        // Gli altri utenti hanno la propria finestra
+        assertEquals(Optional.empty(), limiter.tryAcquire("u2", "c1", "g1"));
+
+        Thread.sleep(WINDOW.toMillis() + 50);
+        assertEquals(Optional.empty(), limiter.tryAcquire("u1", "c1", "g1"));
+        assertEquals(1.0, meterRegistry.get("discord.ratelimit.requests")
+                .tag("result", "rejected").tag("scope", "user").counter().count());
+    }
+
+    @Test
+    void rejectionDoesNotConsumeTheOtherScopes() {
+        properties.setUser(new RateLimitProperties.Limit(1, Duration.ofMinutes(1)));
+        properties.setChannel(new RateLimitProperties.Limit(2, Duration.ofMinutes(1)));
+        IngressRateLimiter limiter = new IngressRateLimiter(properties, meterRegistry);
+
+        assertEquals(Optional.empty(), limiter.tryAcquire("u1", "c1", "g1"));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Optional.of(Scope.USER), limiter.tryAcquire("u1", "c1", "g1"));
+        }
+        // I rifiuti dell'utente non hanno eroso la quota del canale
+        assertEquals(Optional.empty(), limiter.tryAcquire("u2", "c1", "g1"));
+        assertEquals(Optional.of(Scope.CHANNEL), limiter.tryAcquire("u3", "c1", "g1"));
+    }
+
+    @Test
+    void guildLimitSpansChannelsAndSkipsDirectMessages() {
+        properties.setGuild(new RateLimitProperties.Limit(2, Duration.ofMinutes(1)));
+        IngressRateLimiter limiter = new IngressRateLimiter(properties, meterRegistry);
+
+        assertEquals(Optional.empty(), limiter.tryAcquire("u1", "c1", "g1"));
+        assertEquals(Optional.empty(), limiter.tryAcquire("u2", "c2", "g1"));
+        assertEquals(Optional.of(Scope.GUILD), limiter.tryAcquire("u3", "c3", "g1"));
+        assertEquals(Optional.empty(), limiter.tryAcquire("u3", "c3", null));
+    }
+
+    @Test
+    void evictsKeysIdleBeyondTheirWindow() throws InterruptedException {
+        properties.setIdleExpiry(Duration.ofMillis(1));
+        properties.setUser(new RateLimitProperties.Limit(5, WINDOW));
+        IngressRateLimiter limiter = new IngressRateLimiter(properties, meterRegistry);
+        limiter.tryAcquire("u1", "c1", "g1");
+
+        limiter.evictIdle();
+        assertEquals(1.0, keys(Scope.USER));
+
+        Thread.sleep(WINDOW.toMillis() + 50);
+        limiter.evictIdle();
+        assertEquals(0.0, keys(Scope.USER));
+    }
+
+    private double keys(Scope scope) {
+        return meterRegistry.get("discord.ratelimit.keys").tag("scope", scope.name().toLowerCase()).gauge().value();
+    }
+}
@@ -0,0 +1,182 @@
+package it.tao.io.test01.presentation.ingress;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.tao.io.test01.config.AppProperties;
+import it.tao.io.test01.config.DeadlineProperties;
+import it.tao.io.test01.config.IngressProperties;
+import it.tao.io.test01.infrastructure.settings.RuntimeSettings;
+import it.tao.io.test01.loadtest.LoadTestRepositories;
+import it.tao.io.test01.presentation.ingress.IngressScheduler.Priority;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Ordine di avvio, quote per server, prestito, riserva, annullamento e scarto dello stadio di ingresso
+ */
+class IngressSchedulerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void highPriorityStartsBeforeOlderNormalRequests() {
+        IngressScheduler scheduler = scheduler(1, 0, 1, 10);
+        Probe blocker = submit(scheduler, "g1", Priority.NORMAL);
+        Probe normal = submit(scheduler, "g2", Priority.NORMAL);
+        Probe high = submit(scheduler, "g3", Priority.HIGH);
+
+        assertTrue(blocker.started);
+        assertFalse(normal.started);
+        assertFalse(high.started);
+
+        blocker.complete();
+        assertTrue(high.started);
+        assertFalse(normal.started);
+
+        high.complete();
+        assertTrue(normal.started);
+    }
+
+    @Test
+    void idleCapacityIsBorrowedAndReturnedToGuildsUnderTheirShare() {
+        IngressScheduler scheduler = scheduler(4, 0, 1, 10);
+        List<Probe> noisy = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            noisy.add(submit(scheduler, "noisy", Priority.NORMAL));
+        }
+        // Quota garantita di 1, gli altri 3 slot liberi presi in prestito
+        assertEquals(4, noisy.stream().filter(probe -> probe.started).count());
+        assertEquals(3.0, meterRegistry.get("discord.ingress.borrowed").tag("tier", "standard").counter().count());
+
+        Probe quiet = submit(scheduler, "quiet", Priority.NORMAL);
+        assertFalse(quiet.started);
+
+        // Lo slot liberato va al server sotto quota, non alle richieste in attesa da più tempo del server rumoroso
+        noisy.get(0).complete();
+        assertTrue(quiet.started);
+        assertFalse(noisy.get(4).started);
+
+        noisy.get(1).complete();
+        assertTrue(noisy.get(4).started);
+    }
+
+    @Test
+    void reserveSlotsAreKeptForGuildsUnderTheirShare() {
+        IngressScheduler scheduler = scheduler(4, 2, 1, 10);
+        Probe first = submit(scheduler, "g1", Priority.NORMAL);
+        Probe borrowed = submit(scheduler, "g1", Priority.NORMAL);
+        Probe beyondReserve = submit(scheduler, "g1", Priority.NORMAL);
+
+        assertTrue(first.started);
+        assertTrue(borrowed.started);
+        assertFalse(beyondReserve.started);
+
+        // Un altro server entra nella propria quota usando la riserva
+        assertTrue(submit(scheduler, "g2", Priority.NORMAL).started);
+        assertTrue(submit(scheduler, "g3", Priority.NORMAL).started);
+        assertEquals(4.0, gauge("discord.ingress.active"));
+    }
+
+    @Test
+    void cancelledQueuedTicketIsRemovedAndNeverStarted() {
+        IngressScheduler scheduler = scheduler(1, 0, 1, 10);
+        Probe blocker = submit(scheduler, "g1", Priority.NORMAL);
+        Probe cancelled = submit(scheduler, "g2", Priority.NORMAL);
+        assertEquals(1.0, queueDepth(Priority.NORMAL));
+
+        cancelled.subscription.dispose();
+        assertEquals(0.0, queueDepth(Priority.NORMAL));
+
+        blocker.complete();
+        assertFalse(cancelled.started);
+        assertFalse(cancelled.shed);
+        assertEquals(0.0, gauge("discord.ingress.active"));
+    }
+
+    @Test
+    void guildQueueLimitShedsAndHighPriorityReplacesNewestNormal() {
+        IngressScheduler scheduler = scheduler(1, 0, 1, 1);
+        submit(scheduler, "g1", Priority.NORMAL);
+        Probe queued = submit(scheduler, "g1", Priority.NORMAL);
+        Probe overflow = submit(scheduler, "g1", Priority.NORMAL);
+
+        assertTrue(overflow.shed);
+        assertFalse(queued.shed);
+
+        Probe high = submit(scheduler, "g1", Priority.HIGH);
+        assertFalse(high.shed);
+        assertTrue(queued.shed);
+        assertEquals(1.0, meterRegistry.get("discord.ingress.saturation")
+                .tag("tier", "standard").tag("result", "evicted").counter().count());
+    }
+
+    @Test
+    void fullGlobalQueueEvictsFromTheGuildWithMostWaiting() {
+        IngressScheduler scheduler = scheduler(1, 0, 1, 10, 3);
+        submit(scheduler, "g1", Priority.NORMAL);
+        Probe oldest = submit(scheduler, "noisy", Priority.NORMAL);
+        submit(scheduler, "noisy", Priority.NORMAL);
+        Probe newest = submit(scheduler, "noisy", Priority.NORMAL);
+
+        Probe quiet = submit(scheduler, "quiet", Priority.NORMAL);
+        assertFalse(quiet.shed);
+        assertTrue(newest.shed);
+        assertFalse(oldest.shed);
+    }
+
+    private IngressScheduler scheduler(int maxConcurrency, int reserve, int guildConcurrency, int guildQueue) {
+        return scheduler(maxConcurrency, reserve, guildConcurrency, guildQueue, 256);
+    }
+
+    private IngressScheduler scheduler(int maxConcurrency, int reserve, int guildConcurrency, int guildQueue,
+                                       int queueCapacity) {
+        IngressProperties properties = new IngressProperties();
+        properties.setMaxConcurrency(maxConcurrency);
+        properties.setQueueCapacity(queueCapacity);
+        properties.setReserve(reserve);
+        IngressProperties.Tier tier = properties.getTiers().get(IngressProperties.DEFAULT_TIER);
+        tier.setConcurrency(guildConcurrency);
+        tier.setQueueCapacity(guildQueue);
+        RuntimeSettings runtimeSettings = new RuntimeSettings(new AppProperties(), properties, new DeadlineProperties(),
+                LoadTestRepositories.noSettingsOverrides(), meterRegistry);
+        return new IngressScheduler(properties, runtimeSettings, meterRegistry);
+    }
+
+    private double gauge(String name) {
+        return meterRegistry.get(name).gauge().value();
+    }
+
+    private double queueDepth(Priority priority) {
+        return meterRegistry.get("discord.ingress.queue.depth").tag("priority", priority.name().toLowerCase()).gauge().value();
+    }
+
+    private static Probe submit(IngressScheduler scheduler, String guildId, Priority priority) {
+        Probe probe = new Probe();
+        probe.subscription = scheduler.submit(guildId, priority,
+                probe.done.asMono().doOnSubscribe(subscription -> probe.started = true),
+                () -> probe.shed = true);
+        return probe;
+    }
+
+    /**
+     * Pipeline controllata dal test: parte alla sottoscrizione e termina su richiesta
+     */
+    private static final class Probe {
+
+        private final Sinks.Empty<Void> done = Sinks.empty();
+        private Disposable subscription;
+        private boolean started;
+        private boolean shed;
+
+        void complete() {
+            done.tryEmitEmpty();
+        }
+    }
+}
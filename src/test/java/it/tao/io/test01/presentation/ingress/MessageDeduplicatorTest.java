@@ -0,0 +1,90 @@
+package it.tao.io.test01.presentation.ingress;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.tao.io.test01.config.IdempotencyProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Riconoscimento dei duplicati tra LRU esatta e generazioni dei filtri di Bloom
+ */
+class MessageDeduplicatorTest {
+
+    private static final Duration WINDOW = Duration.ofMillis(200);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void secondDeliveryIsRecognisedFromMemory() {
+        MessageDeduplicator deduplicator = deduplicator(100);
+
+        assertTrue(deduplicator.firstDelivery("m1"));
+        assertFalse(deduplicator.firstDelivery("m1"));
+        assertTrue(deduplicator.firstDelivery("m2"));
+        assertEquals(1.0, duplicates("memory"));
+    }
+
+    @Test
+    void idsEvictedFromMemoryAreRecognisedByTheBloomFilter() {
+        MessageDeduplicator deduplicator = deduplicator(1);
+
+        assertTrue(deduplicator.firstDelivery("m1"));
+        assertTrue(deduplicator.firstDelivery("m2"));
+        assertFalse(deduplicator.firstDelivery("m1"));
+        assertEquals(1.0, duplicates("bloom"));
+    }
+
+    @Test
+    void idsSurviveOneRotationAndExpireAfterTheSecond() throws InterruptedException {
+        MessageDeduplicator deduplicator = deduplicator(1);
+        assertTrue(deduplicator.firstDelivery("m1"));
+        assertTrue(deduplicator.firstDelivery("m2"));
+
+        // Prima rotazione: m1 passa nella generazione precedente
+        Thread.sleep(WINDOW.toMillis() + 50);
+        assertFalse(deduplicator.firstDelivery("m1"));
+        assertTrue(deduplicator.firstDelivery("m3"));
+
+        // Seconda rotazione: la generazione che conteneva m1 viene scartata
+        Thread.sleep(WINDOW.toMillis() + 50);
+        assertTrue(deduplicator.firstDelivery("m1"));
+        assertFalse(deduplicator.firstDelivery("m3"));
+    }
+
+    @Test
+    void bothGenerationsExpireAfterTwoIdleWindows() throws InterruptedException {
+        MessageDeduplicator deduplicator = deduplicator(1);
+        assertTrue(deduplicator.firstDelivery("m1"));
+        assertTrue(deduplicator.firstDelivery("m2"));
+
+        Thread.sleep(2 * WINDOW.toMillis() + 50);
+        assertTrue(deduplicator.firstDelivery("m1"));
+    }
+
+    @Test
+    void disabledDeduplicationAdmitsEveryDelivery() {
+        IdempotencyProperties properties = new IdempotencyProperties();
+        properties.setEnabled(false);
+        MessageDeduplicator deduplicator = new MessageDeduplicator(properties, meterRegistry);
+
+        assertTrue(deduplicator.firstDelivery("m1"));
+        assertTrue(deduplicator.firstDelivery("m1"));
+    }
+
+    private MessageDeduplicator deduplicator(int recentCapacity) {
+        IdempotencyProperties properties = new IdempotencyProperties();
+        properties.setRecentCapacity(recentCapacity);
+        properties.setWindow(WINDOW);
+        properties.setExpectedPerWindow(1000);
+        return new MessageDeduplicator(properties, meterRegistry);
+    }
+
+    private double duplicates(String source) {
+        return meterRegistry.get("discord.ingress.duplicates").tag("source", source).counter().count();
+    }
+}